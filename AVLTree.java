@@ -1,5 +1,35 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.locks.StampedLock;
+import java.util.zip.CRC32;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  *
@@ -12,18 +42,149 @@ import java.util.List;
 
 public class AVLTree {
 
+	/** the external node shared by all trees in shared-external mode, it is immutable **/
+	protected static final IAVLNode EXTERNAL = new ExternalNode();
+
 	protected IAVLNode root;
 	protected int size;
 	protected IAVLNode min;
 	protected IAVLNode max;
+	protected final boolean sharedExternal;
+	// the augmentation kept in every node besides the size, null if there is none
+	protected final Monoid monoid;
+
+	// the results of splitSubtree and the re-balancing counter of the subtree operations
+	private IAVLNode splitLower;
+	private IAVLNode splitUpper;
+	private IAVLNode splitFound;
+	private IAVLNode splitLowerMax;
+	private IAVLNode splitUpperMin;
+	private int subtreeOps;
+	// the opt-in metrics of the tree, null when they are disabled
+	protected Metrics metrics;
+	// the node of the last insert or finger search, the default finger of insertNear and searchNear.
+	// null when unknown, every operation that may take nodes out of the tree drops it
+	protected AVLNode finger;
+	// the opt-in node pool: the free nodes and free external nodes are linked through their parent fields
+	private int poolCapacity;
+	private AVLNode freeNodes;
+	private int freeCount;
+	private AVLNode freeExternals;
+	private int freeExternalCount;
+	// the bound of setCapacity and the listener of the evicted items
+	private int capacity = Integer.MAX_VALUE;
+	private EvictionListener evictionListener;
+
+	// the snapshot format of save and load
+	private static final int SNAPSHOT_MAGIC = 0x41564C53; // "AVLS"
+	private static final byte SNAPSHOT_FORMAT = 1;
+	private static final int SNAPSHOT_HEADER = 4 + 1 + 4 + 8 + 8;
+	// toArrays fills subtrees of up to this many items on one thread
+	private static final int EXPORT_SEQUENTIAL_SIZE = 1 << 15;
 
 	public AVLTree() {
-		this.root = new AVLNode();// creating root as external node
+		this(false);
+	}
+
+	/**
+	 * public AVLTree(boolean sharedExternal)
+	 * <p>
+	 * creates an empty tree. if sharedExternal is true all the virtual leaves of the tree are the single
+	 * immutable EXTERNAL node instead of two fresh external AVLNode objects for every real node.
+	 * <p>
+	 * heap footprint (64 bit JVM with compressed oops, info strings not included):
+	 * an AVLNode is 12 bytes of header + 7 fields of 4 bytes + the reference to the enclosing tree, padded to 48 bytes.
+	 * current layout - every insert allocates 3 objects (144 bytes) and a tree of n keys keeps
+	 * n real nodes + n+1 virtual leaves alive, about 96 bytes per key (measured on 1M random keys).
+	 * shared external layout - every insert allocates 1 object (48 bytes) and the tree keeps 48 bytes per key.
+	 * complexity O(1)
+	 */
+	public AVLTree(boolean sharedExternal) {
+		this(sharedExternal, null);
+	}
+
+	/**
+	 * public AVLTree(boolean sharedExternal, Monoid monoid)
+	 * <p>
+	 * creates an empty tree whose nodes keep, besides the size of their subtree, the aggregate of the monoid over
+	 * the items of their subtree. the aggregate is maintained wherever the size is, O(1) per rotation and per join,
+	 * and rangeAggregate answers for a range of keys in O(log n).
+	 * the real nodes of the tree are AggregateNodes, 64 bytes instead of the 48 of an AVLNode.
+	 * the trees that are joined must have the same monoid: join, union, intersection and difference throw
+	 * IllegalArgumentException for a tree with another monoid (or none). split passes it to its results.
+	 * complexity O(1)
+	 */
+	public AVLTree(boolean sharedExternal, Monoid monoid) {
+		this.sharedExternal = sharedExternal;
+		this.monoid = monoid;
+		this.root = external();// creating root as external node
 		this.size=0;
 		this.min=null;
 		this.max=null;
 	}
 
+	/**
+	 * public AVLTree(int[] keys, String[] values)
+	 * <p>
+	 * builds a balanced tree of the items (keys[i], values[i]) at once.
+	 * sorted keys are built in O(n), with the correct rank and size in every node.
+	 * unsorted keys are sorted first with a parallel sort - O(n log n).
+	 * throws IllegalArgumentException if the keys are not distinct or the arrays differ in length.
+	 */
+	public AVLTree(int[] keys, String[] values) {
+		this(keys, values, false);
+	}
+
+	/**
+	 * public AVLTree(int[] keys, String[] values, boolean sharedExternal)
+	 * <p>
+	 * builds a balanced tree of the items (keys[i], values[i]), see AVLTree(int[], String[]).
+	 * the arrays are not modified.
+	 */
+	public AVLTree(int[] keys, String[] values, boolean sharedExternal) {
+		this(sharedExternal);
+		if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+		if (!isSorted(keys)) {
+			long[] packed = sortByKey(keys);
+			int[] sortedKeys = new int[keys.length];
+			String[] sortedValues = new String[keys.length];
+			for (int i = 0; i < packed.length; i++) {
+				sortedKeys[i] = (int) (packed[i] >> 32);
+				sortedValues[i] = values[(int) packed[i]];
+			}
+			keys = sortedKeys;
+			values = sortedValues;
+			if (!isSorted(keys)) throw new IllegalArgumentException("the keys are not distinct");
+		}
+		buildFromSorted(keys, values, keys.length);
+	}
+
+	/**
+	 * public AVLTree(Iterator<Map.Entry<Integer, String>> sorted, boolean sharedExternal)
+	 * <p>
+	 * builds a balanced tree of the items of an iterator in ascending key order,
+	 * for example the entry set of a TreeMap. complexity O(n)
+	 * throws IllegalArgumentException if the keys are not ascending and distinct.
+	 */
+	public AVLTree(Iterator<Map.Entry<Integer, String>> sorted, boolean sharedExternal) {
+		this(sharedExternal);
+		int[] keys = new int[16];
+		String[] values = new String[16];
+		int n = 0;
+		while (sorted.hasNext()) {
+			Map.Entry<Integer, String> entry = sorted.next();
+			if (n == keys.length) {
+				keys = Arrays.copyOf(keys, n * 2);
+				values = Arrays.copyOf(values, n * 2);
+			}
+			keys[n] = entry.getKey();
+			values[n] = entry.getValue();
+			if (n > 0 && keys[n] <= keys[n - 1]) throw new IllegalArgumentException("the keys are not ascending and distinct");
+			n++;
+		}
+		buildFromSorted(keys, values, n);
+	}
+
 	/**
 	 * public boolean empty()
 	 * <p>
@@ -42,17 +203,12 @@ public class AVLTree {
 	 * complexity O(log n)
 	 */
 	public String search(int k) {
-		IAVLNode curr = this.root;
-		while (curr.isRealNode()){
-			if (curr.getKey()== k) return curr.getValue();
-			if (k>curr.getKey()){
-				curr= curr.getRight();
-			}
-			else{
-				curr= curr.getLeft();
-			}
-		}
-		return null;
+		Metrics m = this.metrics;
+		long start = m == null ? 0 : System.nanoTime();
+		AVLNode node = descend(k);
+		if (m != null) m.searched(depth(node), System.nanoTime() - start);
+		if (node == null || node.key != k) return null;
+		return node.value;
 	}
 
 	/**
@@ -66,30 +222,84 @@ public class AVLTree {
 	 * complexity O(log n)
 	 */
 	public int insert(int k, String i) {
-		IAVLNode curr = this.getRoot();
-		IAVLNode parent = null;
-		int counter=0;
+		Metrics m = this.metrics;
+		int result;
+		if (m == null) result = insertItem(k, i);
+		else {
+			long start = System.nanoTime();
+			result = insertItem(k, i);
+			m.insertLatency.record(System.nanoTime() - start);
+		}
+		if (this.size > this.capacity) trim();
+		return result;
+	}
 
-		// insert a root if the tree is empty and update the fields
-		if (empty()){
-			this.root = new AVLNode(k, i);
-			this.root.setSize(1);
-			this.size= 1;
-			this.max= this.root;
-			this.min= this.root;
-			return counter;
+	/**
+	 * public int insertNear(IAVLNode finger, int k, String i)
+	 * <p>
+	 * inserts an item with key k and info i like insert, but searches for its place starting at finger
+	 * instead of the root: it climbs from finger to the lowest ancestor whose subtree holds k and descends
+	 * from there. the inserted node becomes the finger of the tree.
+	 * precondition: finger is a node of this tree, or null to start at the root.
+	 * complexity O(log d) for the search, d the number of keys between k and the key of finger.
+	 * the sizes of the ancestors of the new node are updated up to the root, a walk of O(log n) parent pointers.
+	 */
+	public int insertNear(IAVLNode finger, int k, String i) {
+		Metrics m = this.metrics;
+		int result;
+		if (m == null) result = insertNearItem(finger, k, i);
+		else {
+			long start = System.nanoTime();
+			result = insertNearItem(finger, k, i);
+			m.insertLatency.record(System.nanoTime() - start);
 		}
+		if (this.size > this.capacity) trim();
+		return result;
+	}
+
+	/**
+	 * public int insertNear(int k, String i)
+	 * <p>
+	 * inserts an item with key k and info i starting at the finger of the tree - the node of the last insert
+	 * or finger search, see insertNear(IAVLNode, int, String). appending keys in ascending order, or nearly
+	 * ascending order, searches O(1) levels per insert.
+	 * complexity O(log d), d the number of keys between k and the key of the last accessed node
+	 */
+	public int insertNear(int k, String i) {
+		return insertNear(this.finger, k, i);
+	}
 
-		// checking if an item with key k already exists
-		if (search(k)!=null) return -1;
+	/** the insertion of insert, without the metrics - complexity O(log n) **/
+	private int insertItem(int k, String i) {
+		if (empty()) return insertRoot(k, i);
+		// searching for the parent of the new node, or an item with key k that already exists -complexity O(log n)
+		return insertUnder(descend(k), k, i);
+	}
 
-		// searching for the parent of the new node -complexity O(log n)
-		while (curr.isRealNode()){
-			parent = curr;
-			if (curr.getKey() > k) curr = curr.getLeft();
-			else curr = curr.getRight();
-		}
-		IAVLNode newNode = new AVLNode(k, i);
+	/** the insertion of insertNear, without the metrics - complexity O(log d) **/
+	private int insertNearItem(IAVLNode finger, int k, String i) {
+		if (empty()) return insertRoot(k, i);
+		return insertUnder(descendFrom(finger, k), k, i);
+	}
+
+	/** inserting the first node of an empty tree - complexity O(1) **/
+	private int insertRoot(int k, String i) {
+		AVLNode node = newNode(k, i);
+		this.root = node;
+		this.size= 1;
+		this.max= node;
+		this.min= node;
+		this.finger = node;
+		return 0;
+	}
+
+	/** inserting k as a child of parent, the last node on its search path, and re-balancing the tree - complexity O(log n) **/
+	private int insertUnder(AVLNode parent, int k, String i) {
+		IAVLNode curr;
+		int counter=0;
+		if (parent.getKey() == k) return -1;
+		AVLNode newNode = newNode(k, i);
+		this.finger = newNode;
 
 		// updating the min max and size of the tree if needed - O(1)
 		if (this.min.getKey()>k )this.min= newNode;
@@ -97,9 +307,12 @@ public class AVLTree {
 		this.size= this.size+1;
 
 		//insert the new node as the child  - O(1)
+		IAVLNode replaced = parent.getKey() > k ? parent.getLeft() : parent.getRight();
 		if (parent.getKey() > k) parent.setLeft(newNode);
 		else parent.setRight(newNode);
 		newNode.setParent(parent);
+		// the virtual child the new node replaced goes to the pool of external nodes
+		if (this.poolCapacity > 0) recycleExternal(replaced);
 
 		curr= newNode;
 		// updating the size of all the nodes which are affected by the insertion - O(log n)
@@ -110,11 +323,14 @@ public class AVLTree {
 
 			while (curr.getParent() != null) {
 				curr = curr.getParent();
+				// the rank of a balanced node that was not promoted didn't change, nothing above it changes
+				if (isBalanced(curr)) break;
 				while (!isBalanced(curr)) {
 					//Case 1 - 1,0 0,1 - promote
 					if (getRankDifference(curr) == 1) {
 						curr.setHeight(curr.getHeight() + 1); //**
 						counter++;
+						if (this.metrics != null) this.metrics.promotions++;
 					}
 					else {
 						AVLTree.IAVLNode child;
@@ -180,27 +396,43 @@ public class AVLTree {
 	 *
 	 */
 	public int delete(int k) {
-		int counter=0;
-		IAVLNode node = null;
-		IAVLNode curr = this.root;
-		//finding the node in the tree
-		while (curr.isRealNode()){
-			if (curr.getKey()== k){
-				node = curr;
-				break;
-			}
-			if (k>curr.getKey())curr= curr.getRight();
-			else curr= curr.getLeft();
+		AVLNode finger = this.finger;
+		Metrics m = this.metrics;
+		int result;
+		if (m == null) result = deleteItem(k);
+		else {
+			long start = System.nanoTime();
+			result = deleteItem(k);
+			m.deleteLatency.record(System.nanoTime() - start);
 		}
+		// the nodes keep their identity through the deletion, so the finger stays in the tree unless it was deleted
+		if (finger != null && finger.key != k) this.finger = finger;
+		return result;
+	}
+
+	/** the deletion of delete, without the metrics, the deleted node goes to the node pool - complexity O(log n) **/
+	private int deleteItem(int k) {
+		//finding the node in the tree
+		AVLNode node = descend(k);
 		// checking if the given key found
-		if(node == null) return -1;
+		if (node == null || node.key != k) return -1;
+		int counter = removeNode(node);
+		// removeNode updates the sizes before the node is taken out, the aggregates are refreshed after it
+		if (this.monoid != null) refreshAggregates(node.getParent());
+		if (this.poolCapacity > 0) recycle(node);
+		return counter;
+	}
+
+	/** removing node, a node of the tree, and re-balancing the tree - complexity O(log n) **/
+	private int removeNode(IAVLNode node) {
+		int counter=0;
+		int k = node.getKey();
 
 		// checking if the given key is the root
 		IAVLNode z= node.getParent();
-		IAVLNode ex = new AVLNode();
 		// checking if the tree include the root only
 		if (this.root.getKey()==k && this.size==1){
-			this.root=ex;
+			this.root=external();
 			this.size=0;
 			updateMinMax();
 			return counter;
@@ -219,27 +451,14 @@ public class AVLTree {
 			updateMinMax();
 			return counter;
 		}
-		// binary node - regular deletion
+		// binary node - swap the node with its successor so it has at most one child
 		if (node.getLeft().isRealNode() && node.getRight().isRealNode()){
-			IAVLNode suc = successor(node);
-			delete(suc.getKey());
-			this.size ++;
-			suc.setParent(z);
-			suc.setLeft(node.getLeft());
-			suc.setRight(node.getRight());
-			updateNodeSize(suc);
-			suc.setHeight(node.getHeight());
-			if (node.getKey()== root.getKey()){
-				this.root = suc;
-			}
-			if (z!=null && z.getKey()>node.getKey()) z.setLeft(suc);
-			else if(z!=null && z.getKey()<node.getKey() )z.setRight(suc);
-			node.getRight().setParent(suc);
-			node.getLeft().setParent(suc);
-			if (z!=null) z= z.getParent();
+			swapWithSuccessor(node);
+			z = node.getParent();
 		}
 		//the node is a leaf - Case 1
-		else if (node.getHeight() == 0){
+		if (node.getHeight() == 0){
+			IAVLNode ex = external();
 			updateBranchSize(z,'M');
 			// case 1.1 - rank difference 1-1
 			if (getRankDifference(z)==0) {
@@ -255,6 +474,7 @@ public class AVLTree {
 				//roll the problem to the top
 				z= z.getParent();
 				counter++;
+				if (this.metrics != null) this.metrics.demotions++;
 			}
 
 			// case 1.3 - rank difference 2-1 going to balancing
@@ -282,6 +502,7 @@ public class AVLTree {
 				connectParentToChild(node,z,x);
 				z.setHeight(z.getHeight()-1);
 				counter++;
+				if (this.metrics != null) this.metrics.demotions++;
 				z= z.getParent();
 			}
 			// case 2.3 - rank difference 3-1 going to balancing
@@ -297,6 +518,7 @@ public class AVLTree {
 
 				z.setHeight(z.getHeight()-1);
 				counter++;
+				if (this.metrics != null) this.metrics.demotions++;
 				z= z.getParent();
 			}
 			// all the cases for case 2.3 - 1.3
@@ -410,8 +632,7 @@ public class AVLTree {
 	 */
 	public int[] keysToArray() {
 		int[] result= new int[this.size];
-		if (empty()) return result;
-		keysToArrayRec(this.root,result,0);
+		toArrays(result, null);
 		return result;
 	}
 	/**
@@ -424,11 +645,99 @@ public class AVLTree {
 	 */
 	public String[] infoToArray() {
 		String[] result = new String[this.size];
-		if (empty()) return result;
-		infoToArrayRec(this.root,result,0);
+		toArrays(null, result);
 		return result;
 	}
 
+	/**
+	 * public int toArrays(int[] keys, String[] values)
+	 * <p>
+	 * fills keys[0..n) with the sorted keys of the tree and values[0..n) with their info, in one walk,
+	 * and returns n = size(). either array may be null to skip it, and may be longer than n
+	 * so the same buffers can be reused between exports. the walk moves along the parent pointers,
+	 * without recursion. trees of more than EXPORT_SEQUENTIAL_SIZE items are cut into disjoint slices
+	 * filled in parallel on the ForkJoinPool, the offset of every subtree is known from the sizes.
+	 * throws IllegalArgumentException if an array is shorter than size().
+	 * complexity O(n), O(n / p + log n) on p threads
+	 */
+	public int toArrays(int[] keys, String[] values) {
+		int n = this.size;
+		if (keys != null && keys.length < n) throw new IllegalArgumentException("keys length " + keys.length + ", size " + n);
+		if (values != null && values.length < n) throw new IllegalArgumentException("values length " + values.length + ", size " + n);
+		if (n == 0 || (keys == null && values == null)) return n;
+		AVLNode root = realNode(this.root);
+		if (n <= EXPORT_SEQUENTIAL_SIZE) fillSlice(root, keys, values, 0);
+		else ForkJoinPool.commonPool().invoke(new ExportTask(root, keys, values, 0));
+		return n;
+	}
+
+	/** writing the items of the subtree of node, a real node, from index offset on, along the parent pointers - complexity O(size) **/
+	private static void fillSlice(AVLNode node, int[] keys, String[] values, int offset) {
+		int end = offset + node.size;
+		AVLNode curr = leftmost(node);
+		for (int i = offset; ; i++) {
+			if (keys != null) keys[i] = curr.key;
+			if (values != null) values[i] = curr.value;
+			if (i + 1 == end) return;
+			// the successor of curr - the leftmost node of its right subtree, or the first ancestor it is left of
+			AVLNode right = realNode(curr.right);
+			if (right != null) {
+				curr = leftmost(right);
+			}
+			else {
+				AVLNode parent = (AVLNode) curr.parent;
+				while (parent.right == curr) {
+					curr = parent;
+					parent = (AVLNode) curr.parent;
+				}
+				curr = parent;
+			}
+		}
+	}
+
+	/** the node with the smallest key in the subtree of node, a real node - complexity O(log n) **/
+	private static AVLNode leftmost(AVLNode node) {
+		for (AVLNode left = realNode(node.left); left != null; left = realNode(node.left)) node = left;
+		return node;
+	}
+
+	/**
+	 * private static class ExportTask
+	 * <p>
+	 * a fork join task of toArrays: the root of a big subtree is written at offset + the size of its left subtree
+	 * and the two subtrees are filled in parallel, small subtrees are filled by fillSlice.
+	 */
+	private static final class ExportTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final AVLNode node;
+		private final int[] keys;
+		private final String[] values;
+		private final int offset;
+
+		ExportTask(AVLNode node, int[] keys, String[] values, int offset) {
+			this.node = node;
+			this.keys = keys;
+			this.values = values;
+			this.offset = offset;
+		}
+
+		protected void compute() {
+			if (this.node.size <= EXPORT_SEQUENTIAL_SIZE) {
+				fillSlice(this.node, this.keys, this.values, this.offset);
+				return;
+			}
+			AVLNode left = realNode(this.node.left);
+			AVLNode right = realNode(this.node.right);
+			int index = this.offset + (left == null ? 0 : left.size);
+			if (this.keys != null) this.keys[index] = this.node.key;
+			if (this.values != null) this.values[index] = this.node.value;
+			// the subtrees of a node of more than EXPORT_SEQUENTIAL_SIZE items are both real in an AVL tree
+			invokeAll(new ExportTask(left, this.keys, this.values, this.offset),
+					new ExportTask(right, this.keys, this.values, index + 1));
+		}
+	}
+
 	/**
 	 * public int size()
 	 * <p>
@@ -442,6 +751,327 @@ public class AVLTree {
 		return this.size;
 	}
 
+	/**
+	 * public void save(Path path)
+	 * <p>
+	 * writes the items of the tree to a snapshot file, in ascending order of the keys:
+	 * a header [int magic "AVLS"][byte format][int count][long keys length][long info length],
+	 * the keys - the first as a zig-zag varint and then the (positive) differences as varints,
+	 * and a blob of the info - every info is a varint of (UTF-8 length + 1, 0 for null) and its bytes.
+	 * the file is written next to path and moved over it when complete, so a crash leaves the old snapshot.
+	 * complexity O(n)
+	 */
+	public void save(Path path) throws IOException {
+		Path written = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer out = ByteBuffer.allocate(1 << 20);
+			channel.position(SNAPSHOT_HEADER);
+			long keysLength = 0;
+			int prev = 0;
+			for (IAVLNode node = empty() ? null : this.min; node != null; node = nextNode(node)) {
+				if (out.remaining() < 10) keysLength += drain(channel, out);
+				int k = node.getKey();
+				if (node == this.min) putVarLong(out, ((k << 1) ^ (k >> 31)) & 0xFFFFFFFFL);
+				else putVarLong(out, (long) k - prev);
+				prev = k;
+			}
+			keysLength += drain(channel, out);
+			long infoLength = 0;
+			for (IAVLNode node = empty() ? null : this.min; node != null; node = nextNode(node)) {
+				String i = node.getValue();
+				byte[] bytes = i == null ? null : i.getBytes(StandardCharsets.UTF_8);
+				int length = bytes == null ? 0 : bytes.length;
+				if (out.remaining() < 5 + length) infoLength += drain(channel, out);
+				putVarLong(out, bytes == null ? 0 : length + 1L);
+				if (length > out.remaining()) {
+					// an info larger than the buffer goes straight to the file
+					infoLength += drain(channel, out);
+					ByteBuffer large = ByteBuffer.wrap(bytes);
+					while (large.hasRemaining()) channel.write(large);
+					infoLength += length;
+				}
+				else if (bytes != null) {
+					out.put(bytes);
+				}
+			}
+			infoLength += drain(channel, out);
+			out.putInt(SNAPSHOT_MAGIC).put(SNAPSHOT_FORMAT).putInt(this.size).putLong(keysLength).putLong(infoLength);
+			out.flip();
+			channel.write(out, 0);
+			channel.force(true);
+		}
+		Files.move(written, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * public static AVLTree load(Path path)
+	 * <p>
+	 * reads a snapshot written by save into a new balanced tree.
+	 * the file is memory mapped, the keys and the info are decoded in parallel straight into sorted arrays
+	 * and the tree is built from them at once, with no comparisons and no re-balancing.
+	 * throws IOException if the file is not a complete snapshot.
+	 * complexity O(n)
+	 */
+	public static AVLTree load(Path path) throws IOException {
+		return load(path, false);
+	}
+
+	/**
+	 * public static AVLTree load(Path path, boolean sharedExternal)
+	 * <p>
+	 * reads a snapshot into a new tree of the given mode, see load(Path)
+	 * complexity O(n)
+	 */
+	public static AVLTree load(Path path, boolean sharedExternal) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < SNAPSHOT_HEADER) throw new EOFException("not a snapshot: " + path);
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, SNAPSHOT_HEADER);
+			if (header.getInt() != SNAPSHOT_MAGIC || header.get() != SNAPSHOT_FORMAT) throw new IOException("not a snapshot: " + path);
+			int n = header.getInt();
+			long keysLength = header.getLong();
+			long infoLength = header.getLong();
+			if (n < 0 || keysLength < 0 || infoLength < 0 || SNAPSHOT_HEADER + keysLength + infoLength != channel.size()) {
+				throw new IOException("corrupt snapshot header: " + path);
+			}
+			ForkJoinTask<String[]> info = ForkJoinPool.commonPool().submit(
+					() -> readInfo(new MappedInput(channel, SNAPSHOT_HEADER + keysLength, infoLength), n));
+			int[] keys = readKeys(new MappedInput(channel, SNAPSHOT_HEADER, keysLength), n);
+			String[] values;
+			try {
+				values = info.get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while loading " + path);
+			}
+			catch (ExecutionException e) {
+				if (e.getCause() instanceof IOException) throw (IOException) e.getCause();
+				throw new IOException("failed to load " + path, e.getCause());
+			}
+			AVLTree tree = new AVLTree(sharedExternal);
+			tree.buildFromSorted(keys, values, n);
+			return tree;
+		}
+	}
+
+	/**
+	 * public int select(int i)
+	 * <p>
+	 * Returns the key at index i of the sorted keys (keysToArray()[i]), from the sizes of the subtrees.
+	 * throws IndexOutOfBoundsException unless 0 <= i < size().
+	 * complexity O(log n)
+	 */
+	public int select(int i) {
+		if (i < 0 || i >= this.size) throw new IndexOutOfBoundsException("index " + i + ", size " + this.size);
+		IAVLNode curr = this.root;
+		while (true) {
+			int leftSize = curr.getLeft().getSize();
+			if (i == leftSize) return curr.getKey();
+			if (i < leftSize) {
+				curr = curr.getLeft();
+			}
+			else {
+				i = i - leftSize - 1;
+				curr = curr.getRight();
+			}
+		}
+	}
+
+	/**
+	 * public int rank(int k)
+	 * <p>
+	 * Returns the number of keys in the tree that are smaller than k,
+	 * which is the index of k in keysToArray() if k is in the tree.
+	 * complexity O(log n)
+	 */
+	public int rank(int k) {
+		int result = 0;
+		IAVLNode curr = this.root;
+		while (curr.isRealNode()) {
+			if (curr.getKey() < k) {
+				result = result + curr.getLeft().getSize() + 1;
+				curr = curr.getRight();
+			}
+			else {
+				curr = curr.getLeft();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * public int countInRange(int lo, int hi)
+	 * <p>
+	 * Returns the number of keys k in the tree with lo <= k < hi.
+	 * complexity O(log n)
+	 */
+	public int countInRange(int lo, int hi) {
+		if (hi <= lo) return 0;
+		return rank(hi) - rank(lo);
+	}
+
+	/**
+	 * public int range(int lo, int hi, ItemConsumer consumer)
+	 * <p>
+	 * passes the items with lo <= key < hi to the consumer in key order, without copying them anywhere.
+	 * Returns the number of items passed.
+	 * complexity O(log n + the number of items passed)
+	 */
+	public int range(int lo, int hi, ItemConsumer consumer) {
+		int counter = 0;
+		for (IAVLNode node = ceilingNode(lo); node != null && node.getKey() < hi; node = nextNode(node)) {
+			consumer.accept(node.getKey(), node.getValue());
+			counter++;
+		}
+		return counter;
+	}
+
+	/**
+	 * public int deleteRange(int lo, int hi)
+	 * <p>
+	 * deletes all the items with lo <= key < hi by splitting the tree at lo and at hi
+	 * and joining the outer parts.
+	 * Returns the number of deleted items.
+	 * complexity O(log n)
+	 */
+	public int deleteRange(int lo, int hi) {
+		if (hi <= lo || empty()) return 0;
+		int oldSize = this.size;
+		splitSubtree(this.root, lo);
+		IAVLNode lower = this.splitLower;
+		splitSubtree(this.splitUpper, hi);
+		IAVLNode upper = this.splitUpper;
+		IAVLNode result;
+		// the item of hi itself stays
+		if (this.splitFound != null) result = joinNodes(lower, this.splitFound, upper);
+		else result = joinNodes(lower, upper);
+		if (result.isRealNode()) result.setParent(null);
+		else result = external();
+		this.root = result;
+		this.size = result.getSize();
+		updateMinMax();
+		return oldSize - this.size;
+	}
+
+	/**
+	 * public long rangeAggregate(int lo, int hi)
+	 * <p>
+	 * Returns the aggregate of the monoid of the tree over the items with lo <= key < hi, combined in key order,
+	 * or the identity if there are none. it descends to the highest node in the range and then down the two
+	 * boundaries of the range, taking whole subtrees from their aggregates.
+	 * throws IllegalStateException if the tree has no monoid.
+	 * complexity O(log n)
+	 */
+	public long rangeAggregate(int lo, int hi) {
+		Monoid m = this.monoid;
+		if (m == null) throw new IllegalStateException("the tree has no monoid");
+		// the highest node in the range, where the boundaries of lo and hi part
+		AggregateNode node = aggregateNode(this.root);
+		while (node != null && (node.getKey() < lo || node.getKey() >= hi)) node = aggregateNode(node.getKey() < lo ? node.getRight() : node.getLeft());
+		if (node == null) return m.identity();
+		// the items >= lo of the left subtree, collected from right to left
+		long left = m.identity();
+		for (AggregateNode curr = aggregateNode(node.getLeft()); curr != null; ) {
+			if (curr.getKey() >= lo) {
+				left = m.combine(m.combine(curr.lifted, aggregateOf(curr.getRight())), left);
+				curr = aggregateNode(curr.getLeft());
+			}
+			else curr = aggregateNode(curr.getRight());
+		}
+		// the items < hi of the right subtree, collected from left to right
+		long right = m.identity();
+		for (AggregateNode curr = aggregateNode(node.getRight()); curr != null; ) {
+			if (curr.getKey() < hi) {
+				right = m.combine(right, m.combine(aggregateOf(curr.getLeft()), curr.lifted));
+				curr = aggregateNode(curr.getRight());
+			}
+			else curr = aggregateNode(curr.getLeft());
+		}
+		return m.combine(m.combine(left, node.lifted), right);
+	}
+
+	/**
+	 * public long aggregate()
+	 * <p>
+	 * Returns the aggregate of the monoid of the tree over all its items, the aggregate of the root.
+	 * throws IllegalStateException if the tree has no monoid.
+	 * complexity O(1)
+	 */
+	public long aggregate() {
+		if (this.monoid == null) throw new IllegalStateException("the tree has no monoid");
+		return aggregateOf(this.root);
+	}
+
+	/** the aggregate of the subtree of node, the identity of the monoid for a virtual node - complexity O(1) **/
+	private long aggregateOf(IAVLNode node) {
+		AggregateNode n = aggregateNode(node);
+		return n == null ? this.monoid.identity() : n.aggregate;
+	}
+
+	/** node as an AggregateNode, a node of a tree with a monoid, or null for a virtual node - complexity O(1) **/
+	private static AggregateNode aggregateNode(IAVLNode node) {
+		return node != null && node.isRealNode() ? (AggregateNode) node : null;
+	}
+
+	/**
+	 * public AVLTree evictBelow(int k)
+	 * <p>
+	 * removes all the items with key < k by splitting the tree once at k, and returns them as a tree of their own,
+	 * so the caller can hand it to another thread, or to the garbage collector, instead of deleting them one by one.
+	 * the cost doesn't grow with the number of evicted items.
+	 * complexity O(log n)
+	 */
+	public AVLTree evictBelow(int k) {
+		if (empty() || this.min.getKey() >= k) return new AVLTree(this.sharedExternal, this.monoid);
+		splitSubtree(this.root, k);
+		IAVLNode lower = this.splitLower;
+		IAVLNode upper = this.splitUpper;
+		// the item of k itself stays
+		if (this.splitFound != null) upper = joinNodes(external(), this.splitFound, upper);
+		if (upper.isRealNode()) upper.setParent(null);
+		else upper = external();
+		this.root = upper;
+		this.size = upper.getSize();
+		updateMinMax();
+		AVLTree evicted = createTree(lower);
+		if (!evicted.empty()) evicted.updateMinMax();
+		return evicted;
+	}
+
+	/**
+	 * public void setCapacity(int capacity, EvictionListener listener)
+	 * <p>
+	 * bounds the number of items in the tree. when an insert, insertNear, insertAll, join or union makes the tree
+	 * larger than capacity, the smallest items are evicted by evictBelow in one batch down to capacity - capacity / 16,
+	 * so one split serves many inserts,
+	 * and the tree of the evicted items is passed to the listener (or dropped if it is null).
+	 * Integer.MAX_VALUE removes the bound. a tree that is already larger is trimmed at once.
+	 * complexity O(log n)
+	 */
+	public void setCapacity(int capacity, EvictionListener listener) {
+		if (capacity < 1) throw new IllegalArgumentException("capacity " + capacity);
+		this.capacity = capacity;
+		this.evictionListener = listener;
+		if (this.size > capacity) trim();
+	}
+
+	/**
+	 * public int getCapacity()
+	 * <p>
+	 * returns the bound on the number of items in the tree, Integer.MAX_VALUE if there is none
+	 * complexity O(1)
+	 */
+	public int getCapacity() {
+		return this.capacity;
+	}
+
+	/** evicting the smallest items of a tree that outgrew its capacity, down to capacity minus a batch - complexity O(log n) **/
+	private void trim() {
+		int keep = this.capacity - this.capacity / 16;
+		AVLTree evicted = evictBelow(select(this.size - keep));
+		if (this.evictionListener != null) this.evictionListener.evicted(evicted);
+	}
+
 	/**
 	 * public int getRoot()
 	 * <p>
@@ -455,52 +1085,87 @@ public class AVLTree {
 		return this.root;
 	}
 
+	/**
+	 * public Metrics enableMetrics()
+	 * <p>
+	 * starts collecting the metrics of the operations on this tree and returns them, see Metrics.
+	 * while the metrics are disabled (the default) every operation pays one null check of a field.
+	 * complexity O(1)
+	 */
+	public Metrics enableMetrics() {
+		if (this.metrics == null) this.metrics = new Metrics();
+		return this.metrics;
+	}
+
+	/**
+	 * public void disableMetrics()
+	 * <p>
+	 * stops collecting the metrics of the tree, the collected metrics are dropped
+	 * complexity O(1)
+	 */
+	public void disableMetrics() {
+		this.metrics = null;
+	}
+
+	/**
+	 * public Metrics getMetrics()
+	 * <p>
+	 * Returns the metrics of the tree, or null if they are disabled
+	 * complexity O(1)
+	 */
+	public Metrics getMetrics() {
+		return this.metrics;
+	}
+
+	/**
+	 * public Cursor cursor()
+	 * <p>
+	 * Returns a new cursor of the tree that is not positioned yet, see Cursor.
+	 * complexity O(1)
+	 */
+	public Cursor cursor() {
+		return new Cursor();
+	}
+
 	/**
 	 * public string split(int x)
 	 * <p>
 	 * splits the tree into 2 trees according to the key x.
 	 * Returns an array [t1, t2] with two AVL trees. keys(t1) < x < keys(t2).
-	 * precondition: search(x) != null (i.e. you can also assume that the tree is not empty)
+	 * the item with key x, if there is one, is in neither tree.
+	 * precondition: none
 	 * post-condition: none
 	 * complexity O(log n)
 	 */
 	public AVLTree[] split(int x) {
+		this.finger = null;
+		Metrics m = this.metrics;
+		if (m == null) return splitTree(x);
+		long start = System.nanoTime();
+		int cost = depth(descend(x));
+		AVLTree[] result = splitTree(x);
+		m.split(cost, System.nanoTime() - start);
+		return result;
+	}
 
-		// finding the node
-		IAVLNode curr= findNode(x);
-
-		// updating the trees
-		AVLTree t1= createTree(curr.getLeft());
-		AVLTree	t2= createTree(curr.getRight());
-		AVLTree[] result=new AVLTree[2];
-		result[0]= t1;
-		result[1]=t2;
-
-		IAVLNode parent = curr.getParent();
-		if (parent==null) {
-			if(!result[0].empty())t1.updateMinMax();
-			if(!result[1].empty()) t2.updateMinMax();
-			return result;
-		}
-		// loop until the root
-		while (parent !=null) {
-			// the curr node is a right child
-			if (parent.getKey() < curr.getKey()) {
-				AVLTree currTree= createTree(parent.getLeft());
-				IAVLNode fake = parent.getParent();
-				t1.join(parent, currTree);
-				parent= fake;
-			}
-			// the curr node is a left child
-			else{
-				AVLTree currTree= createTree(parent.getRight());
-				IAVLNode fake = parent.getParent();
-				t2.join(parent, currTree);
-				parent= fake;
-			}
-		}
-		if(!result[0].empty())result[0].updateMinMax();
-		if(!result[1].empty()) result[1].updateMinMax();
+	/**
+	 * the split of split, without the metrics. splitSubtree splits the raw subtree bottom up with joinNodes,
+	 * without a tree object per ancestor, and finds the largest key below x and the smallest above it on its way
+	 * down, the other ends of the results are the min and max of the tree - complexity O(log n), O(1) allocations
+	 **/
+	private AVLTree[] splitTree(int x) {
+		IAVLNode min = this.min;
+		IAVLNode max = this.max;
+		splitSubtree(this.root, x);
+		IAVLNode lower = this.splitLower;
+		IAVLNode upper = this.splitUpper;
+		AVLTree[] result = new AVLTree[2];
+		result[0] = lower.isRealNode()
+				? new AVLTree(this.sharedExternal, this.monoid, lower, min, this.splitLowerMax)
+				: new AVLTree(this.sharedExternal, this.monoid, lower, lower, lower);
+		result[1] = upper.isRealNode()
+				? new AVLTree(this.sharedExternal, this.monoid, upper, this.splitUpperMin, max)
+				: new AVLTree(this.sharedExternal, this.monoid, upper, upper, upper);
 		return result;
 	}
 
@@ -511,12 +1176,31 @@ public class AVLTree {
 	 * joins t and x with the tree.
 	 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
 	 * precondition: keys(x,t) < keys() or keys(x,t) > keys(). t/tree might be empty (rank = -1).
+	 * throws IllegalArgumentException if t has another monoid.
 	 * complexity O(log n)
 	 * post-condition: none
 	 */
 	public int join(IAVLNode x, AVLTree t) {
-		x.setParent(null);
-		AVLTree t1;
+		checkMonoid(t);
+		t.finger = null;
+		Metrics m = this.metrics;
+		int result;
+		if (m == null) result = joinTree(x, t);
+		else {
+			long start = System.nanoTime();
+			result = joinTree(x, t);
+			m.join(result, System.nanoTime() - start);
+		}
+		if (this.size > this.capacity) trim();
+		return result;
+	}
+
+	/** the join of join, without the metrics - complexity O(log n) **/
+	private int joinTree(IAVLNode x, AVLTree t) {
+		// the nodes of a tree with a monoid carry its aggregate, a plain AVLNode is replaced by such a node
+		if (this.monoid != null && !(x instanceof AggregateNode)) x = createNode(x.getKey(), x.getValue());
+		x.setParent(null);
+		AVLTree t1;
 		AVLTree t2;
 		int complexity = Math.abs(this.getRoot().getHeight() - t.getRoot().getHeight()) + 1;
 		IAVLNode updatedRoot;
@@ -537,7 +1221,7 @@ public class AVLTree {
 			t.insert(x.getKey(), x.getValue());
 			this.root = t.getRoot();
 			this.size = t.size();
-			t.updateMinMax();
+			updateMinMax();
 			return Math.abs(-1 - t.getRoot().getHeight()) + 1;
 		}
 		//if t is an empty tree
@@ -573,16 +1257,17 @@ public class AVLTree {
 		//check if t2 is the right sub tree
 		if (x.getKey() < t2.getRoot().getKey()) {
 			//find the parent of the node with rank <= k in t2
+			c = null;
 			while (b.getHeight() > t1.getRoot().getHeight()) {
+				c = b;
 				b = b.getLeft();
 			}
-			c = b.getParent();
 
 			//update a
 			a.setParent(x);
 
 			//update b
-			b.setParent(x);
+			if (b.isRealNode()) b.setParent(x);
 
 			//update x
 			x.setParent(c);
@@ -604,16 +1289,17 @@ public class AVLTree {
 		//t2 is the left sub tree
 		else {
 			//find the parent of the node with rank <= k in t2
+			c = null;
 			while (b.getHeight() > t1.getRoot().getHeight()) {
+				c = b;
 				b = b.getRight();
 			}
-			c = b.getParent();
 
 			//update a
 			a.setParent(x);
 
 			//update b
-			b.setParent(x);
+			if (b.isRealNode()) b.setParent(x);
 
 			//update x
 			x.setParent(c);
@@ -652,6 +1338,236 @@ public class AVLTree {
 	}
 
 
+	/**
+	 * public int insertAll(int[] keys, String[] values)
+	 * <p>
+	 * inserts the items (keys[i], values[i]) to the tree as one batch.
+	 * the batch is sorted and merged with the tree by a divide and conquer union of split and join,
+	 * so a batch of m keys into a tree of n keys costs O(m log(n/m + 1)) instead of m insertions.
+	 * keys that are already in the tree keep their info, like insert. if a key repeats in the batch
+	 * the first item wins.
+	 * returns the number of re-balancing operations (promotions, demotions and rotations).
+	 * the arrays are not modified.
+	 */
+	public int insertAll(int[] keys, String[] values) {
+		if (keys.length != values.length) throw new IllegalArgumentException("keys and values differ in length");
+		int n = keys.length;
+		if (!isSorted(keys)) {
+			long[] packed = sortByKey(keys);
+			int[] sortedKeys = new int[n];
+			String[] sortedValues = new String[n];
+			n = 0;
+			for (long item : packed) {
+				int k = (int) (item >> 32);
+				if (n > 0 && sortedKeys[n - 1] == k) continue;
+				sortedKeys[n] = k;
+				sortedValues[n] = values[(int) item];
+				n++;
+			}
+			keys = sortedKeys;
+			values = sortedValues;
+		}
+		this.subtreeOps = 0;
+		this.root = unionSorted(this.root, keys, values, 0, n);
+		if (this.root.isRealNode()) this.root.setParent(null);
+		this.size = this.root.getSize();
+		updateMinMax();
+		int ops = this.subtreeOps;
+		if (this.size > this.capacity) trim();
+		return ops;
+	}
+
+	/**
+	 * public int deleteAll(int[] keys)
+	 * <p>
+	 * deletes the items with the given keys from the tree as one batch, keys that are not in the tree are ignored.
+	 * the batch is sorted and subtracted from the tree by a divide and conquer difference of split and join,
+	 * complexity O(m log(n/m + 1)) for a batch of m keys.
+	 * returns the number of re-balancing operations (promotions, demotions and rotations).
+	 * the array is not modified.
+	 */
+	public int deleteAll(int[] keys) {
+		int n = keys.length;
+		if (!isSorted(keys)) {
+			keys = keys.clone();
+			Arrays.parallelSort(keys);
+			n = 0;
+			for (int i = 0; i < keys.length; i++) {
+				if (n == 0 || keys[n - 1] != keys[i]) keys[n++] = keys[i];
+			}
+		}
+		this.subtreeOps = 0;
+		IAVLNode result = differenceSorted(this.root, keys, 0, n);
+		if (!result.isRealNode()) result = external();
+		else result.setParent(null);
+		this.root = result;
+		this.size = this.root.getSize();
+		updateMinMax();
+		return this.subtreeOps;
+	}
+
+	/**
+	 * public AVLTree union(AVLTree t)
+	 * <p>
+	 * turns the tree into the union of its items and the items of t, t is left empty.
+	 * for a key in both trees the info of this tree is kept.
+	 * the trees are merged by recursively splitting this tree by the root of t and merging the two halves
+	 * in parallel on the common ForkJoinPool, then joining - O(m log(n/m + 1)) work for m <= n.
+	 * throws IllegalArgumentException if t has another monoid.
+	 * returns this tree.
+	 */
+	public AVLTree union(AVLTree t) {
+		return setOperation('U', t);
+	}
+
+	/**
+	 * public AVLTree intersection(AVLTree t)
+	 * <p>
+	 * turns the tree into the intersection of its items and the items of t, t is left empty.
+	 * the info of this tree is kept. merged in parallel like union - O(m log(n/m + 1)) work.
+	 * throws IllegalArgumentException if t has another monoid.
+	 * returns this tree.
+	 */
+	public AVLTree intersection(AVLTree t) {
+		return setOperation('I', t);
+	}
+
+	/**
+	 * public AVLTree difference(AVLTree t)
+	 * <p>
+	 * removes the keys of t from the tree, t is left empty.
+	 * merged in parallel like union - O(m log(n/m + 1)) work.
+	 * throws IllegalArgumentException if t has another monoid.
+	 * returns this tree.
+	 */
+	public AVLTree difference(AVLTree t) {
+		return setOperation('D', t);
+	}
+
+	/** throwing IllegalArgumentException unless t has the monoid of this tree, as join and the set operations require O(1) **/
+	private void checkMonoid(AVLTree t) {
+		if (t.monoid != this.monoid) throw new IllegalArgumentException("the trees have different monoids");
+	}
+
+	/** running the set operation U(nion), I(ntersection) or D(ifference) with t on the ForkJoinPool **/
+	private AVLTree setOperation(char operation, AVLTree t) {
+		checkMonoid(t);
+		if (t == this) {
+			if (operation == 'D') clear();
+			return this;
+		}
+		IAVLNode result = ForkJoinPool.commonPool().invoke(new SetOperationTask(operation, this.root, t.root, this.sharedExternal));
+		if (result.isRealNode()) result.setParent(null);
+		else result = external();
+		this.root = result;
+		this.size = result.getSize();
+		updateMinMax();
+		t.clear();
+		if (this.size > this.capacity) trim();
+		return this;
+	}
+
+	/** recursive set operation of the subtrees t1 and t2, returns the root of the result - O(m log(n/m + 1)) **/
+	private IAVLNode setOperation(char operation, IAVLNode t1, IAVLNode t2) {
+		if (!t1.isRealNode() || !t2.isRealNode()) return setOperationBase(operation, t1, t2);
+		IAVLNode l2 = t2.getLeft();
+		IAVLNode r2 = t2.getRight();
+		if (l2.isRealNode()) l2.setParent(null);
+		if (r2.isRealNode()) r2.setParent(null);
+		splitSubtree(t1, t2.getKey());
+		IAVLNode lower = this.splitLower;
+		IAVLNode upper = this.splitUpper;
+		IAVLNode found = this.splitFound;
+		IAVLNode l = setOperation(operation, lower, l2);
+		IAVLNode r = setOperation(operation, upper, r2);
+		return setOperationJoin(operation, l, found, t2, r);
+	}
+
+	/** the set operation when one of the subtrees is empty O(1) **/
+	private static IAVLNode setOperationBase(char operation, IAVLNode t1, IAVLNode t2) {
+		if (operation == 'U') return t1.isRealNode() ? t1 : t2;
+		if (operation == 'I') return t1.isRealNode() ? t2 : t1;
+		return t1;
+	}
+
+	/** joining the results of the halves around the key of the root x of t2, found is its node in t1 or null - O(log n) **/
+	private IAVLNode setOperationJoin(char operation, IAVLNode l, IAVLNode found, IAVLNode x, IAVLNode r) {
+		if (operation == 'U') return joinNodes(l, found != null ? found : x, r);
+		if (operation == 'I' && found != null) return joinNodes(l, found, r);
+		return joinNodes(l, r);
+	}
+
+	/**
+	 * private static class SetOperationTask
+	 * <p>
+	 * a fork join task of a set operation of two subtrees. the halves of big subtrees run in parallel,
+	 * small ones run sequentially. every task works with a tree object of its own,
+	 * since the subtree operations keep their results in the fields of the tree.
+	 */
+	private static final class SetOperationTask extends RecursiveTask<IAVLNode> {
+		private static final long serialVersionUID = 1L;
+		private static final int SEQUENTIAL_SIZE = 1 << 13;
+
+		private final char operation;
+		private final IAVLNode t1;
+		private final IAVLNode t2;
+		private final boolean sharedExternal;
+
+		SetOperationTask(char operation, IAVLNode t1, IAVLNode t2, boolean sharedExternal) {
+			this.operation = operation;
+			this.t1 = t1;
+			this.t2 = t2;
+			this.sharedExternal = sharedExternal;
+		}
+
+		protected IAVLNode compute() {
+			if (!this.t1.isRealNode() || !this.t2.isRealNode()) return setOperationBase(this.operation, this.t1, this.t2);
+			AVLTree context = new AVLTree(this.sharedExternal);
+			if (this.t1.getSize() + this.t2.getSize() <= SEQUENTIAL_SIZE) {
+				return context.setOperation(this.operation, this.t1, this.t2);
+			}
+			IAVLNode l2 = this.t2.getLeft();
+			IAVLNode r2 = this.t2.getRight();
+			if (l2.isRealNode()) l2.setParent(null);
+			if (r2.isRealNode()) r2.setParent(null);
+			context.splitSubtree(this.t1, this.t2.getKey());
+			SetOperationTask left = new SetOperationTask(this.operation, context.splitLower, l2, this.sharedExternal);
+			SetOperationTask right = new SetOperationTask(this.operation, context.splitUpper, r2, this.sharedExternal);
+			IAVLNode found = context.splitFound;
+			left.fork();
+			IAVLNode r = right.compute();
+			IAVLNode l = left.join();
+			return context.setOperationJoin(this.operation, l, found, this.t2, r);
+		}
+	}
+
+	/** recursive union of a subtree and the sorted batch items in [lo, hi), returns the new root - O(m log(n/m + 1)) **/
+	private IAVLNode unionSorted(IAVLNode t, int[] keys, String[] values, int lo, int hi) {
+		if (lo >= hi) return t;
+		if (!t.isRealNode()) return buildBalanced(keys, values, lo, hi);
+		int mid = (lo + hi) >>> 1;
+		splitSubtree(t, keys[mid]);
+		IAVLNode lower = this.splitLower;
+		IAVLNode upper = this.splitUpper;
+		IAVLNode found = this.splitFound;
+		IAVLNode l = unionSorted(lower, keys, values, lo, mid);
+		IAVLNode r = unionSorted(upper, keys, values, mid + 1, hi);
+		if (found == null) found = createNode(keys[mid], values[mid]);
+		return joinNodes(l, found, r);
+	}
+
+	/** recursive difference of a subtree and the sorted batch keys in [lo, hi), returns the new root - O(m log(n/m + 1)) **/
+	private IAVLNode differenceSorted(IAVLNode t, int[] keys, int lo, int hi) {
+		if (lo >= hi || !t.isRealNode()) return t;
+		int mid = (lo + hi) >>> 1;
+		splitSubtree(t, keys[mid]);
+		IAVLNode lower = this.splitLower;
+		IAVLNode upper = this.splitUpper;
+		IAVLNode l = differenceSorted(lower, keys, lo, mid);
+		IAVLNode r = differenceSorted(upper, keys, mid + 1, hi);
+		return joinNodes(l, r);
+	}
+
 	/** update the size field of the node from the sizes of his children- complexity O(log n) **/
 	private void updateSizeJoin(IAVLNode c) {
 		IAVLNode parent;
@@ -734,8 +1650,47 @@ public class AVLTree {
 		}
 		return suc;
 	}
+	/** exchanging the positions of a binary node and its successor in the tree - complexity O(log n) **/
+	private void swapWithSuccessor(IAVLNode node){
+		IAVLNode suc = successor(node);
+		IAVLNode parent = node.getParent();
+		IAVLNode sucParent = suc.getParent();
+		IAVLNode left = node.getLeft();
+		IAVLNode sucLeft = suc.getLeft();
+		IAVLNode sucRight = suc.getRight();
+		int height = node.getHeight();
+		int nodeSize = node.getSize();
+
+		// placing suc where the node was
+		if (parent == null) this.root = suc;
+		else if (parent.getLeft() == node) parent.setLeft(suc);
+		else parent.setRight(suc);
+		suc.setParent(parent);
+		suc.setLeft(left);
+		left.setParent(suc);
+		if (node.getRight() == suc){
+			suc.setRight(node);
+			node.setParent(suc);
+		}
+		else{
+			suc.setRight(node.getRight());
+			node.getRight().setParent(suc);
+			sucParent.setLeft(node);
+			node.setParent(sucParent);
+		}
+
+		// placing the node where suc was, heights and sizes belong to the positions
+		node.setLeft(sucLeft);
+		node.setRight(sucRight);
+		if (sucRight.isRealNode()) sucRight.setParent(node);
+		node.setHeight(suc.getHeight());
+		node.setSize(suc.getSize());
+		suc.setHeight(height);
+		suc.setSize(nodeSize);
+	}
 	/** rotating the tree by the given node and direction complexity- O(1) **/
 	public void rotate(IAVLNode x,char direction){
+		if (this.metrics != null) this.metrics.rotations++;
 		IAVLNode parent= x.getParent();
 		IAVLNode gran=null;
 		if (parent!=null) {
@@ -768,13 +1723,13 @@ public class AVLTree {
 			if (direction=='R') parent.setLeft(child);
 			else parent.setRight(child);
 		}
-		// update rightChild
-		child.setParent(parent);
+		// update rightChild - virtual nodes don't keep a parent
+		if (child.isRealNode()) child.setParent(parent);
 	}
 	/** checking if the subtree of the given node is an AVL balanced tree  complexity O(1)**/
 	protected boolean isBalanced(IAVLNode node) {
 		if (node == null) return true;
-		if (node.getRight().getKey() == -1 && node.getLeft().getKey() == -1) {
+		if (!node.getRight().isRealNode() && !node.getLeft().isRealNode()) {
 			return true;
 		}
 		int leftDif = node.getHeight() - node.getLeft().getHeight();
@@ -789,9 +1744,10 @@ public class AVLTree {
 	}
 	/** updating the min and max of the tree with complexity O(log n)**/
 	protected void updateMinMax() {
+		this.finger = null;
 		//if the deleted node is the only node in the tree
 		if (this.size() == 0) {
-			IAVLNode n = new AVLNode();
+			IAVLNode n = external();
 			this.min = n;
 			this.max = n;
 			return;
@@ -814,195 +1770,981 @@ public class AVLTree {
 	}
 	/** searching the node by the given key and returning its avlNode -complexity O(log n) **/
 	protected IAVLNode findNode(int x){
-		IAVLNode curr= this.root;
-		while (curr.isRealNode()){
-			if (curr.getKey()== x){
-				return curr;
-			}
-			if (x>curr.getKey())curr= curr.getRight();
-			else curr= curr.getLeft();
+		AVLNode node = descend(x);
+		if (node == null || node.key != x) return null;
+		return node;
+	}
+
+	/**
+	 * returning the last real node on the search path of k - the node of k if it is in the tree,
+	 * otherwise the node that would be its parent, or null if the tree is empty.
+	 * the hot path of search, findNode and insert: it reads the fields of AVLNode directly instead of
+	 * calling through IAVLNode, one type check and one load of the child per level - complexity O(log n)
+	 */
+	protected AVLNode descend(int k) {
+		AVLNode node = realNode(this.root);
+		if (node == null) return null;
+		return descend(node, k);
+	}
+
+	/** returning the last real node on the search path of k in the subtree of node, a real node - complexity O(log n) **/
+	private static AVLNode descend(AVLNode node, int k) {
+		while (true) {
+			int key = node.key;
+			if (key == k) return node;
+			AVLNode next = realNode(k < key ? node.left : node.right);
+			if (next == null) return node;
+			node = next;
 		}
-		return null;
 	}
 
+	/** the node as an AVLNode if it is real, or null for the shared EXTERNAL and the virtual nodes of rank -1 - complexity O(1) **/
+	private static AVLNode realNode(IAVLNode node) {
+		if (!(node instanceof AVLNode)) return null;
+		AVLNode n = (AVLNode) node;
+		return n.rank == -1 ? null : n;
+	}
 
-	/** creating a tree by the given root complexity O(1) **/
-	protected AVLTree createTree(IAVLNode child) {
-		AVLTree t1= new AVLTree();
-		t1.root= child;
-		t1.root.setParent(null);
-		t1.size= child.getSize();
-		t1.min = child;
-		t1.max = child;
-		return t1;
+	/** the number of nodes from node up to the root, 0 for null - complexity O(log n) **/
+	private static int depth(IAVLNode node) {
+		int depth = 0;
+		for (; node != null; node = node.getParent()) depth++;
+		return depth;
 	}
-	/** recursive method that help building a sorted value -array inorder traversal - O(n) **/
-	private int infoToArrayRec(IAVLNode node, String[] result,int counter) {
-		if (node.getLeft().isRealNode()) {
-			counter = infoToArrayRec(node.getLeft(), result, counter);
+
+
+	/**
+	 * public String searchFrom(IAVLNode finger, int k)
+	 * <p>
+	 * returns the info of an item with key k if it exists in the tree, otherwise null, like search,
+	 * but starts the search at finger instead of the root. the last node of the search becomes the finger of the tree.
+	 * precondition: finger is a node of this tree, or null to start at the root.
+	 * complexity O(log d), d the number of keys between k and the key of finger
+	 */
+	public String searchFrom(IAVLNode finger, int k) {
+		AVLNode node = empty() ? null : descendFrom(finger, k);
+		this.finger = node;
+		if (node == null || node.key != k) return null;
+		return node.value;
+	}
+
+	/**
+	 * public String searchNear(int k)
+	 * <p>
+	 * returns the info of an item with key k if it exists in the tree, otherwise null,
+	 * starting at the finger of the tree - the node of the last insert or finger search.
+	 * complexity O(log d), d the number of keys between k and the key of the last accessed node
+	 */
+	public String searchNear(int k) {
+		return searchFrom(this.finger, k);
+	}
+
+	/**
+	 * public IAVLNode getFinger()
+	 * <p>
+	 * returns the node of the last insert or finger search, or null if it is unknown.
+	 * complexity O(1)
+	 */
+	public IAVLNode getFinger() {
+		return this.finger;
+	}
+
+	/**
+	 * returning the last real node on the search path of k, like descend, starting at finger: climbing while
+	 * the subtree of the node can't hold k - its parent on the side of k is not beyond k - and descending from
+	 * the lowest ancestor whose subtree holds k - complexity O(log d)
+	 */
+	protected AVLNode descendFrom(IAVLNode finger, int k) {
+		AVLNode node = realNode(finger);
+		if (node == null) return descend(k);
+		int key = node.key;
+		if (key == k) return node;
+		boolean right = k > key;
+		AVLNode parent = (AVLNode) node.parent;
+		while (parent != null) {
+			// only a parent on the side of k bounds the keys of the subtree of node
+			if (right ? node == parent.left : node == parent.right) {
+				int bound = parent.key;
+				if (bound == k) return parent;
+				if (right ? bound > k : bound < k) break;
+			}
+			node = parent;
+			parent = (AVLNode) node.parent;
 		}
-		result[counter] = node.getValue();
-		counter++;
-		if(node.getRight().isRealNode()){
-			counter= infoToArrayRec(node.getRight(),result,counter);
+		return descend(node, k);
+	}
+
+	/** returning the node with the smallest key >= k, or null if there is none - complexity O(log n) **/
+	protected IAVLNode ceilingNode(int k) {
+		AVLNode curr = realNode(this.root);
+		AVLNode result = null;
+		while (curr != null) {
+			int key = curr.key;
+			if (key == k) return curr;
+			if (key > k) {
+				result = curr;
+				curr = realNode(curr.left);
+			}
+			else {
+				curr = realNode(curr.right);
+			}
 		}
-		return counter;
+		return result;
 	}
-	/** recursive method that help building a sorted key -array inorder traversal - O(n) **/
-	private int keysToArrayRec(IAVLNode node, int[] result,int counter) {
-		if (node.getLeft().isRealNode()){
-			counter= keysToArrayRec(node.getLeft(),result,counter);
+
+	/** returning the in order successor of a node by the parent pointers, or null - complexity O(1) amortized **/
+	protected IAVLNode nextNode(IAVLNode node) {
+		if (node.getRight().isRealNode()) {
+			node = node.getRight();
+			while (node.getLeft().isRealNode()) node = node.getLeft();
+			return node;
 		}
-		result[counter] = node.getKey();
-		counter++;
-		if(node.getRight().isRealNode()){
-			counter= keysToArrayRec(node.getRight(),result,counter);
+		IAVLNode parent = node.getParent();
+		while (parent != null && parent.getRight() == node) {
+			node = parent;
+			parent = parent.getParent();
 		}
-		return counter;
-	}
-	/** double rotation delete for cases 3(symmetry) - complexity O(1) **/
-	protected void caseCDelete(IAVLNode a, IAVLNode z, IAVLNode u, char first, char second) {
-		rotate(a,first);
-		rotate(a,second);
-		z.setHeight(z.getHeight()-2);
-		u.setHeight(u.getHeight()-1);
-		a.setHeight(u.getHeight()+1);
-		updateNodeSize(z);
-		updateNodeSize(u);
-		updateNodeSize(a);
-	}
-	/** double rotation for cases 3(symmetry) - complexity O(1) **/
-	protected void caseC(IAVLNode grandchild,IAVLNode curr,IAVLNode child,char first,char second){
-		rotate(grandchild,first);
-		rotate(grandchild,second);
-		curr.setHeight(curr.getHeight()-1);
-		child.setHeight(child.getHeight()-1);
-		grandchild.setHeight(grandchild.getHeight()+1);
-		child.setSize(child.getLeft().getSize()+ child.getRight().getSize()+1);
-		curr.setSize(curr.getLeft().getSize()+ curr.getRight().getSize()+1);
-		grandchild.setSize(grandchild.getLeft().getSize()+ grandchild.getRight().getSize()+1);
+		return parent;
 	}
 
-	/** updating the size of the branch according to the operation plus or minus- complexity Oׂׂ(log n) **/
-	protected void updateBranchSize(IAVLNode parent, char operation){
-		if (parent==null)return;
-		if ( operation=='P') {
-			parent.setSize(parent.getSize() + 1);
-			while (parent.getParent() != null) {
-				parent = parent.getParent();
-				parent.setSize(parent.getSize() + 1);
-			}
+	/** returning the in order predecessor of a node by the parent pointers, or null - complexity O(1) amortized **/
+	protected IAVLNode prevNode(IAVLNode node) {
+		if (node.getLeft().isRealNode()) {
+			node = node.getLeft();
+			while (node.getRight().isRealNode()) node = node.getRight();
+			return node;
 		}
-		else{
-			parent.setSize(parent.getSize() - 1);
-			while (parent.getParent() != null) {
-				parent = parent.getParent();
-				parent.setSize(parent.getSize() - 1);
-			}
+		IAVLNode parent = node.getParent();
+		while (parent != null && parent.getLeft() == node) {
+			node = parent;
+			parent = parent.getParent();
 		}
+		return parent;
 	}
 
-	/** setting the given nodes ex and z to be child and parent -complexity O(1) **/
-	private void connectParentToChild(IAVLNode node,IAVLNode z,IAVLNode ex){
-		if (z!=null) {
-			if (node.getKey() > z.getKey()) z.setRight(ex);
-			else z.setLeft(ex);
-			z.setSize(z.getSize() - 1);
-			ex.setParent(z);
+	/** returning a virtual node, the shared EXTERNAL in shared-external mode or a fresh one otherwise complexity O(1) **/
+	protected IAVLNode external() {
+		if (this.sharedExternal) return EXTERNAL;
+		AVLNode node = this.freeExternals;
+		if (node == null) return new AVLNode();
+		this.freeExternals = (AVLNode) node.parent;
+		this.freeExternalCount--;
+		node.parent = null;
+		return node;
+	}
+
+	/**
+	 * public void enableNodePool(int capacity)
+	 * <p>
+	 * turns on the recycling of nodes: delete puts the deleted node (and its virtual children) into a pool
+	 * of up to capacity nodes, and insert takes its new node from the pool before allocating one,
+	 * so a steady churn of inserts and deletes allocates no nodes.
+	 * a node that was deleted must not be used any more, it may come back with another item.
+	 * complexity O(1)
+	 */
+	public void enableNodePool(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("capacity " + capacity);
+		this.poolCapacity = capacity;
+		while (this.freeCount > capacity) {
+			this.freeNodes = (AVLNode) this.freeNodes.parent;
+			this.freeCount--;
+		}
+		while (this.freeExternalCount > 2 * capacity) {
+			this.freeExternals = (AVLNode) this.freeExternals.parent;
+			this.freeExternalCount--;
 		}
-		return;
 	}
 
 	/**
-	 * public interface IAVLNode
-	 * ! Do not delete or modify this - otherwise all tests will fail !
+	 * public void disableNodePool()
+	 * <p>
+	 * turns off the recycling of nodes and drops the pooled nodes
+	 * complexity O(1)
 	 */
-	public interface IAVLNode {
-		int getKey(); //returns node's key (for virtual-val node return -1)
+	public void disableNodePool() {
+		this.poolCapacity = 0;
+		this.freeNodes = null;
+		this.freeCount = 0;
+		this.freeExternals = null;
+		this.freeExternalCount = 0;
+	}
 
-		String getValue(); //returns node's value [info] (for virtual-val node return null)
+	/**
+	 * public int pooledNodes()
+	 * <p>
+	 * returns the number of nodes in the pool, waiting to be reused by insert
+	 * complexity O(1)
+	 */
+	public int pooledNodes() {
+		return this.freeCount;
+	}
 
-		void setLeft(IAVLNode node); //sets left child
+	/** a new node of key k and info i, an AggregateNode if the tree has a monoid, IntervalTree overrides it - complexity O(1) **/
+	protected AVLNode createNode(int k, String i) {
+		return this.monoid == null ? new AVLNode(k, i) : new AggregateNode(k, i);
+	}
 
-		IAVLNode getLeft(); //returns left child (if there is no left child return null)
+	/** a node of key k and info i, a node of the pool if there is one - complexity O(1) **/
+	private AVLNode newNode(int k, String i) {
+		AVLNode node = this.freeNodes;
+		if (node == null) return createNode(k, i);
+		this.freeNodes = (AVLNode) node.parent;
+		this.freeCount--;
+		node.key = k;
+		node.value = i;
+		node.parent = null;
+		node.left = external();
+		node.right = external();
+		if (!this.sharedExternal) {
+			node.left.setParent(node);
+			node.right.setParent(node);
+		}
+		node.rank = 0;
+		node.size = 1;
+		if (this.monoid != null) {
+			AggregateNode aggregateNode = (AggregateNode) node;
+			aggregateNode.aggregate = aggregateNode.lifted = this.monoid.lift(k, i);
+		}
+		return node;
+	}
 
-		void setRight(IAVLNode node); //sets right child
+	/**
+	 * putting node, a node that was taken out of the tree, into the pool if there is room. its virtual children
+	 * belong to it alone, they go to the pool of external nodes, a real child was moved into the tree - complexity O(1)
+	 **/
+	private void recycle(AVLNode node) {
+		if (this.freeCount >= this.poolCapacity) return;
+		recycleExternal(node.left);
+		recycleExternal(node.right);
+		node.value = null;
+		node.left = null;
+		node.right = null;
+		node.parent = this.freeNodes;
+		this.freeNodes = node;
+		this.freeCount++;
+	}
 
-		IAVLNode getRight(); //returns right child (if there is no right child return null)
+	/** putting a virtual node that left the tree into the pool of external nodes - complexity O(1) **/
+	private void recycleExternal(IAVLNode node) {
+		if (this.sharedExternal || !(node instanceof AVLNode) || node.isRealNode()) return;
+		if (this.freeExternalCount >= 2 * this.poolCapacity) return;
+		AVLNode external = (AVLNode) node;
+		external.parent = this.freeExternals;
+		this.freeExternals = external;
+		this.freeExternalCount++;
+	}
 
-		void setParent(IAVLNode node); //sets parent
+	/** checking if the keys are ascending and distinct - complexity O(n) **/
+	private static boolean isSorted(int[] keys) {
+		for (int i = 1; i < keys.length; i++) {
+			if (keys[i] <= keys[i - 1]) return false;
+		}
+		return true;
+	}
 
-		IAVLNode getParent(); //returns the parent (if there is no parent return null)
+	/** emptying the tree O(1) **/
+	private void clear() {
+		this.root = external();
+		this.size = 0;
+		updateMinMax();
+	}
 
-		boolean isRealNode(); // Returns True if this is a non-virtual AVL node
+	/** building the tree from the first n items of sorted arrays, replacing its content - complexity O(n) **/
+	protected void buildFromSorted(int[] keys, String[] values, int n) {
+		if (n == 0) {
+			clear();
+			return;
+		}
+		this.root = buildBalanced(keys, values, 0, n);
+		this.root.setParent(null);
+		this.size = n;
+		updateMinMax();
+	}
 
-		void setHeight(int height); // sets the height of the node
+	/** recursive method that builds a perfectly balanced subtree of the items in [lo, hi) - O(hi - lo) **/
+	protected IAVLNode buildBalanced(int[] keys, String[] values, int lo, int hi) {
+		int mid = (lo + hi) >>> 1;
+		IAVLNode node = createNode(keys[mid], values[mid]);
+		if (lo < mid) {
+			IAVLNode left = buildBalanced(keys, values, lo, mid);
+			node.setLeft(left);
+			left.setParent(node);
+		}
+		if (mid + 1 < hi) {
+			IAVLNode right = buildBalanced(keys, values, mid + 1, hi);
+			node.setRight(right);
+			right.setParent(node);
+		}
+		node.setHeight(Math.max(node.getLeft().getHeight(), node.getRight().getHeight()) + 1);
+		node.setSize(hi - lo);
+		return node;
+	}
 
-		int getHeight(); // Returns the height of the node (-1 for virtual nodes)
+	/** writing the buffer to the channel and clearing it, returns the number of bytes written O(buffer) **/
+	private static int drain(FileChannel channel, ByteBuffer out) throws IOException {
+		out.flip();
+		int length = out.remaining();
+		while (out.hasRemaining()) channel.write(out);
+		out.clear();
+		return length;
+	}
 
-		int getSize(); // Returns the size of the node
+	/** writing an unsigned varint, 7 bits a byte with the high bit on all the bytes but the last O(1) **/
+	private static void putVarLong(ByteBuffer out, long v) {
+		while ((v & ~0x7FL) != 0) {
+			out.put((byte) (v | 0x80));
+			v >>>= 7;
+		}
+		out.put((byte) v);
+	}
 
-		void setSize(int size); // sets the size of the node
+	/** decoding the n keys of a snapshot - complexity O(n) **/
+	private static int[] readKeys(MappedInput in, int n) throws IOException {
+		int[] keys = new int[n];
+		long prev = 0;
+		for (int i = 0; i < n; i++) {
+			long v = in.readVarLong();
+			long k;
+			if (i == 0) {
+				int z = (int) v;
+				k = (z >>> 1) ^ -(z & 1);
+			}
+			else {
+				k = prev + v;
+				if (v < 1 || k > Integer.MAX_VALUE) throw new IOException("corrupt snapshot keys at " + i);
+			}
+			keys[i] = (int) k;
+			prev = k;
+		}
+		if (!in.atEnd()) throw new IOException("corrupt snapshot keys, " + n + " expected");
+		return keys;
+	}
 
+	/** decoding the n info of a snapshot - complexity O(n + bytes) **/
+	private static String[] readInfo(MappedInput in, int n) throws IOException {
+		String[] values = new String[n];
+		byte[] scratch = new byte[256];
+		for (int i = 0; i < n; i++) {
+			long v = in.readVarLong();
+			if (v == 0) continue;
+			if (v - 1 > Integer.MAX_VALUE) throw new IOException("corrupt snapshot info at " + i);
+			int length = (int) (v - 1);
+			if (length > scratch.length) scratch = new byte[Math.max(length, scratch.length * 2)];
+			in.read(scratch, length);
+			values[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+		}
+		if (!in.atEnd()) throw new IOException("corrupt snapshot info, " + n + " expected");
+		return values;
 	}
 
 	/**
-	 * public class AVLNode
+	 * private static class MappedInput
 	 * <p>
-	 * If you wish to implement classes other than AVLTree
-	 * (for example AVLNode), do it in this file, not in
-	 * another file.
-	 * This class can and must be modified.
-	 * (It must implement IAVLNode)
+	 * sequential reader of a section of a file through memory mapped windows of up to 1 GB,
+	 * so a section is not limited by the 2 GB of a single mapping. reads the snapshots and the write ahead log
 	 */
-	public class AVLNode implements IAVLNode {
-		private int key;
-		private String value;
-		private IAVLNode parent;
-		private IAVLNode left;
-		private IAVLNode right;
-		private int rank;
-		private int size;
-		public AVLNode(int key,String value) {
-			this.key = key;
-			this.value = value;
-			AVLNode l = new AVLNode();
-			AVLNode r = new AVLNode();
-			r.setParent(this);
-			l.setParent(this);
-			this.parent = null;
-			this.left = l;
-			this.right = r;
-			this.size=1;
-			this.rank = 0;
+	private static final class MappedInput {
+		private static final long WINDOW = 1L << 30;
+
+		private final FileChannel channel;
+		private final long end;
+		private long base;
+		private MappedByteBuffer buffer;
+
+		private MappedInput(FileChannel channel, long start, long length) throws IOException {
+			this.channel = channel;
+			this.end = start + length;
+			map(start);
 		}
 
-		/* constructor of external node */
-		public AVLNode() {
-			this.key = -1;
-			this.value = null;
-			this.parent = null;
-			this.left = null;
-			this.right = null;
-			this.size=0;
-			this.rank = -1;
+		private void map(long position) throws IOException {
+			this.base = position;
+			this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, this.end - position));
 		}
 
-		/* All of the following methods are either setting a field in an AVLNode or reading a value from it,
-		thus making all of those methods O(1)
+		/** making sure the window has the next length bytes O(1) **/
+		private void ensure(int length) throws IOException {
+			if (this.buffer.remaining() >= length) return;
+			long position = this.base + this.buffer.position();
+			if (this.end - position < length) throw new EOFException("truncated snapshot");
+			map(position);
+		}
 
-		 */
-		public int getKey() {
-			return this.key;
+		private long readVarLong() throws IOException {
+			long v = 0;
+			for (int shift = 0; shift < 64; shift += 7) {
+				ensure(1);
+				byte b = this.buffer.get();
+				v |= (long) (b & 0x7F) << shift;
+				if (b >= 0) return v;
+			}
+			throw new IOException("corrupt varint in snapshot");
 		}
 
-		public String getValue() {
-			return this.value;
+		private void read(byte[] bytes, int length) throws IOException {
+			int done = 0;
+			while (done < length) {
+				ensure(1);
+				int chunk = Math.min(length - done, this.buffer.remaining());
+				this.buffer.get(bytes, done, chunk);
+				done += chunk;
+			}
 		}
-		public void setLeft (IAVLNode node) {
-			this.left = node;
+
+		private int readInt() throws IOException {
+			ensure(4);
+			return this.buffer.getInt();
 		}
-		public IAVLNode getLeft () {
+
+		/** the next length bytes, a view of the window if they fit in one, otherwise a copy O(1) or O(length) **/
+		private ByteBuffer take(int length) throws IOException {
+			if (length > WINDOW) {
+				byte[] bytes = new byte[length];
+				read(bytes, length);
+				return ByteBuffer.wrap(bytes);
+			}
+			ensure(length);
+			ByteBuffer result = this.buffer.slice();
+			result.limit(length);
+			this.buffer.position(this.buffer.position() + length);
+			return result;
+		}
+
+		private boolean atEnd() {
+			return this.base + this.buffer.position() == this.end;
+		}
+	}
+
+	/** sorting keys with a parallel sort into longs of the key in the high bits and its index in the low bits - O(n log n) **/
+	private static long[] sortByKey(int[] keys) {
+		long[] packed = new long[keys.length];
+		for (int i = 0; i < keys.length; i++) packed[i] = ((long) keys[i] << 32) | i;
+		Arrays.parallelSort(packed);
+		return packed;
+	}
+
+	/*
+	The subtree operations below work on detached subtrees - a root with no parent, or a virtual node for an empty subtree.
+	They don't use the fields of the tree, ranks are the heights of the subtrees and a virtual node is never written to.
+	 */
+
+	/** updating the rank and the size of a node from its children O(1) **/
+	private void updateRankAndSize(IAVLNode node) {
+		node.setHeight(Math.max(node.getLeft().getHeight(), node.getRight().getHeight()) + 1);
+		updateNodeSize(node);
+	}
+
+	/** setting l and r as the children of x O(1) **/
+	private void attach(IAVLNode x, IAVLNode l, IAVLNode r) {
+		x.setLeft(l);
+		x.setRight(r);
+		if (l.isRealNode()) l.setParent(x);
+		if (r.isRealNode()) r.setParent(x);
+		updateRankAndSize(x);
+	}
+
+	/** replacing the child old of p by node, p might be null O(1) **/
+	private void replaceChild(IAVLNode p, IAVLNode old, IAVLNode node) {
+		if (p != null) {
+			if (p.getLeft() == old) p.setLeft(node);
+			else p.setRight(node);
+		}
+		if (node.isRealNode()) node.setParent(p);
+	}
+
+	/** rotating y with its left child inside a subtree, returns the new root of y's subtree O(1) **/
+	private IAVLNode rotateSubtreeRight(IAVLNode y) {
+		IAVLNode x = y.getLeft();
+		IAVLNode p = y.getParent();
+		IAVLNode middle = x.getRight();
+		y.setLeft(middle);
+		if (middle.isRealNode()) middle.setParent(y);
+		x.setRight(y);
+		y.setParent(x);
+		replaceChild(p, y, x);
+		updateRankAndSize(y);
+		updateRankAndSize(x);
+		this.subtreeOps++;
+		if (this.metrics != null) this.metrics.rotations++;
+		return x;
+	}
+
+	/** rotating y with its right child inside a subtree, returns the new root of y's subtree O(1) **/
+	private IAVLNode rotateSubtreeLeft(IAVLNode y) {
+		IAVLNode x = y.getRight();
+		IAVLNode p = y.getParent();
+		IAVLNode middle = x.getLeft();
+		y.setRight(middle);
+		if (middle.isRealNode()) middle.setParent(y);
+		x.setLeft(y);
+		y.setParent(x);
+		replaceChild(p, y, x);
+		updateRankAndSize(y);
+		updateRankAndSize(x);
+		this.subtreeOps++;
+		if (this.metrics != null) this.metrics.rotations++;
+		return x;
+	}
+
+	/** fixing the rank and size of a node and rotating if it is not balanced, returns the root of its subtree O(1) **/
+	private IAVLNode balanceSubtree(IAVLNode node) {
+		int oldRank = node.getHeight();
+		updateRankAndSize(node);
+		int diff = node.getLeft().getHeight() - node.getRight().getHeight();
+		if (diff > 1) {
+			IAVLNode l = node.getLeft();
+			if (l.getLeft().getHeight() < l.getRight().getHeight()) {
+				rotateSubtreeLeft(l);
+				if (this.metrics != null) this.metrics.doubleRotations++;
+			}
+			return rotateSubtreeRight(node);
+		}
+		if (diff < -1) {
+			IAVLNode r = node.getRight();
+			if (r.getRight().getHeight() < r.getLeft().getHeight()) {
+				rotateSubtreeRight(r);
+				if (this.metrics != null) this.metrics.doubleRotations++;
+			}
+			return rotateSubtreeLeft(node);
+		}
+		if (node.getHeight() != oldRank) {
+			this.subtreeOps++; // promotion or demotion
+			if (this.metrics != null) {
+				if (node.getHeight() > oldRank) this.metrics.promotions++;
+				else this.metrics.demotions++;
+			}
+		}
+		return node;
+	}
+
+	/** balancing all the nodes from node up to the root of its subtree, returns that root - complexity O(log n) **/
+	private IAVLNode balanceUp(IAVLNode node) {
+		IAVLNode top = node;
+		while (node != null) {
+			IAVLNode parent = node.getParent();
+			top = balanceSubtree(node);
+			node = parent;
+		}
+		return top;
+	}
+
+	/** joining the subtrees l < x < r, returns the root of the joined subtree - complexity O(|rank(l) - rank(r)| + 1) **/
+	protected IAVLNode joinNodes(IAVLNode l, IAVLNode x, IAVLNode r) {
+		if (l.getHeight() > r.getHeight() + 1) {
+			// going down the right spine of l to a node with rank <= rank(r) + 1
+			IAVLNode p = null;
+			IAVLNode c = l;
+			while (c.getHeight() > r.getHeight() + 1) {
+				p = c;
+				c = c.getRight();
+			}
+			attach(x, c, r);
+			p.setRight(x);
+			x.setParent(p);
+			return balanceUp(p);
+		}
+		if (r.getHeight() > l.getHeight() + 1) {
+			// symmetric - going down the left spine of r
+			IAVLNode p = null;
+			IAVLNode c = r;
+			while (c.getHeight() > l.getHeight() + 1) {
+				p = c;
+				c = c.getLeft();
+			}
+			attach(x, l, c);
+			p.setLeft(x);
+			x.setParent(p);
+			return balanceUp(p);
+		}
+		attach(x, l, r);
+		x.setParent(null);
+		return x;
+	}
+
+	/** joining the subtrees l < r with no node in between, returns the root of the joined subtree - complexity O(log n) **/
+	protected IAVLNode joinNodes(IAVLNode l, IAVLNode r) {
+		if (!l.isRealNode()) return r;
+		if (!r.isRealNode()) return l;
+		// taking the max of l out to be the node in between
+		IAVLNode x = l;
+		while (x.getRight().isRealNode()) x = x.getRight();
+		IAVLNode p = x.getParent();
+		IAVLNode rest = x.getLeft();
+		if (p == null) {
+			if (rest.isRealNode()) rest.setParent(null);
+		}
+		else {
+			replaceChild(p, x, rest);
+			rest = balanceUp(p);
+		}
+		return joinNodes(rest, x, r);
+	}
+
+	/**
+	 * splitting the subtree t by the key k, bottom up from the place of k.
+	 * splitLower gets the subtree of the keys < k, splitUpper of the keys > k
+	 * and splitFound the node of k, or null if k is not in t.
+	 * on the way down it finds splitLowerMax, the node of the largest key < k, and splitUpperMin,
+	 * the node of the smallest key > k, null if there is none - complexity O(log n)
+	 */
+	protected void splitSubtree(IAVLNode t, int k) {
+		IAVLNode a = null;
+		IAVLNode curr = t;
+		boolean fromRight = false;
+		IAVLNode below = null;
+		IAVLNode above = null;
+		while (curr.isRealNode() && curr.getKey() != k) {
+			a = curr;
+			fromRight = k > curr.getKey();
+			if (fromRight) below = curr;
+			else above = curr;
+			curr = fromRight ? curr.getRight() : curr.getLeft();
+		}
+		// k is not in t: curr is the virtual leaf of its place, and in non-shared mode the upper part
+		// gets a virtual node of its own, so no virtual node is the child of two nodes
+		IAVLNode l = curr;
+		IAVLNode r = curr.isRealNode() ? curr : external();
+		this.splitFound = null;
+		if (curr.isRealNode()) {
+			this.splitFound = curr;
+			l = curr.getLeft();
+			r = curr.getRight();
+			// the neighbors of k are in its subtrees if they are not empty
+			if (l.isRealNode()) for (below = l; below.getRight().isRealNode(); ) below = below.getRight();
+			if (r.isRealNode()) for (above = r; above.getLeft().isRealNode(); ) above = above.getLeft();
+			if (l.isRealNode()) l.setParent(null);
+			if (r.isRealNode()) r.setParent(null);
+			a = curr.getParent();
+			fromRight = a != null && a.getRight() == curr;
+			curr.setParent(null);
+		}
+		// joining the parts of every ancestor up to the root of t
+		while (a != null) {
+			IAVLNode p = a.getParent();
+			boolean nextFromRight = p != null && p.getRight() == a;
+			if (fromRight) {
+				IAVLNode sub = a.getLeft();
+				if (sub.isRealNode()) sub.setParent(null);
+				l = joinNodes(sub, a, l);
+			}
+			else {
+				IAVLNode sub = a.getRight();
+				if (sub.isRealNode()) sub.setParent(null);
+				r = joinNodes(r, a, sub);
+			}
+			a = p;
+			fromRight = nextFromRight;
+		}
+		this.splitLower = l;
+		this.splitUpper = r;
+		this.splitLowerMax = below;
+		this.splitUpperMin = above;
+	}
+
+	/** creating a tree by the given root complexity O(1) **/
+	protected AVLTree createTree(IAVLNode child) {
+		return new AVLTree(this.sharedExternal, this.monoid, child, child, child);
+	}
+
+	/** a tree of the subtree root with the given min and max nodes, without a virtual root of its own O(1) **/
+	private AVLTree(boolean sharedExternal, Monoid monoid, IAVLNode root, IAVLNode min, IAVLNode max) {
+		this.sharedExternal = sharedExternal;
+		this.monoid = monoid;
+		if (root.isRealNode()) root.setParent(null);
+		this.root = root;
+		this.size = root.getSize();
+		this.min = min;
+		this.max = max;
+	}
+	/** double rotation delete for cases 3(symmetry) - complexity O(1) **/
+	protected void caseCDelete(IAVLNode a, IAVLNode z, IAVLNode u, char first, char second) {
+		if (this.metrics != null) this.metrics.doubleRotations++;
+		rotate(a,first);
+		rotate(a,second);
+		z.setHeight(z.getHeight()-2);
+		u.setHeight(u.getHeight()-1);
+		a.setHeight(u.getHeight()+1);
+		updateNodeSize(z);
+		updateNodeSize(u);
+		updateNodeSize(a);
+	}
+	/** double rotation for cases 3(symmetry) - complexity O(1) **/
+	protected void caseC(IAVLNode grandchild,IAVLNode curr,IAVLNode child,char first,char second){
+		if (this.metrics != null) this.metrics.doubleRotations++;
+		rotate(grandchild,first);
+		rotate(grandchild,second);
+		curr.setHeight(curr.getHeight()-1);
+		child.setHeight(child.getHeight()-1);
+		grandchild.setHeight(grandchild.getHeight()+1);
+		child.setSize(child.getLeft().getSize()+ child.getRight().getSize()+1);
+		curr.setSize(curr.getLeft().getSize()+ curr.getRight().getSize()+1);
+		grandchild.setSize(grandchild.getLeft().getSize()+ grandchild.getRight().getSize()+1);
+	}
+
+	/** updating the size of the branch according to the operation plus or minus- complexity Oׂׂ(log n) **/
+	protected void updateBranchSize(IAVLNode parent, char operation){
+		int change = operation == 'P' ? 1 : -1;
+		// the path to the root has only real nodes, their fields are updated directly
+		for (AVLNode node = (AVLNode) parent; node != null; node = (AVLNode) node.parent) {
+			node.size += change;
+			if (this.monoid != null) ((AggregateNode) node).refreshAggregate();
+		}
+	}
+
+	/** refreshing the aggregates of node and all its ancestors from their children - complexity O(log n) **/
+	private void refreshAggregates(IAVLNode node) {
+		for (; node != null; node = node.getParent()) ((AggregateNode) node).refreshAggregate();
+	}
+
+	/** setting the given nodes ex and z to be child and parent -complexity O(1) **/
+	private void connectParentToChild(IAVLNode node,IAVLNode z,IAVLNode ex){
+		if (z!=null) {
+			if (z.getRight() == node) z.setRight(ex);
+			else z.setLeft(ex);
+			if (ex.isRealNode()) ex.setParent(z);
+		}
+		return;
+	}
+
+	/**
+	 * public interface ItemConsumer
+	 * <p>
+	 * receives the items of a range scan
+	 */
+	public interface ItemConsumer {
+		void accept(int k, String i);
+	}
+
+	/**
+	 * public interface Monoid
+	 * <p>
+	 * an associative combine with an identity over the lifted values of the items. a tree created with a monoid
+	 * keeps the aggregate of every subtree, see AVLTree(boolean, Monoid) and rangeAggregate.
+	 * SUM, MIN and MAX lift the info as a decimal long (null is the identity), COUNT counts the items.
+	 */
+	public interface Monoid {
+		long identity();
+
+		long lift(int k, String i);
+
+		long combine(long a, long b);
+
+		Monoid SUM = new Monoid() {
+			public long identity() {
+				return 0;
+			}
+			public long lift(int k, String i) {
+				return i == null ? 0 : Long.parseLong(i);
+			}
+			public long combine(long a, long b) {
+				return a + b;
+			}
+		};
+
+		Monoid MIN = new Monoid() {
+			public long identity() {
+				return Long.MAX_VALUE;
+			}
+			public long lift(int k, String i) {
+				return i == null ? Long.MAX_VALUE : Long.parseLong(i);
+			}
+			public long combine(long a, long b) {
+				return Math.min(a, b);
+			}
+		};
+
+		Monoid MAX = new Monoid() {
+			public long identity() {
+				return Long.MIN_VALUE;
+			}
+			public long lift(int k, String i) {
+				return i == null ? Long.MIN_VALUE : Long.parseLong(i);
+			}
+			public long combine(long a, long b) {
+				return Math.max(a, b);
+			}
+		};
+
+		Monoid COUNT = new Monoid() {
+			public long identity() {
+				return 0;
+			}
+			public long lift(int k, String i) {
+				return 1;
+			}
+			public long combine(long a, long b) {
+				return a + b;
+			}
+		};
+	}
+
+	/**
+	 * public interface EvictionListener
+	 * <p>
+	 * receives the trees of the items evicted by the capacity bound of a tree
+	 */
+	public interface EvictionListener {
+		void evicted(AVLTree evicted);
+	}
+
+	/**
+	 * public class Cursor
+	 * <p>
+	 * walks over the items of the tree in key order without allocating anything,
+	 * it moves along the parent pointers of the nodes.
+	 * first, last and seek position the cursor, next and prev move it one item.
+	 * every move returns true if the cursor is on an item, and false if it fell off the tree.
+	 * the cursor must be positioned again after the tree changes.
+	 */
+	public class Cursor {
+		private IAVLNode node; // the current node, null if the cursor is not on an item
+
+		/** moving to the item with the smallest key - complexity O(1) **/
+		public boolean first() {
+			this.node = empty() ? null : min;
+			return this.node != null;
+		}
+
+		/** moving to the item with the largest key - complexity O(1) **/
+		public boolean last() {
+			this.node = empty() ? null : max;
+			return this.node != null;
+		}
+
+		/** moving to the item with the smallest key >= k - complexity O(log n) **/
+		public boolean seek(int k) {
+			this.node = ceilingNode(k);
+			return this.node != null;
+		}
+
+		/** moving to the in order successor - complexity O(1) amortized over a walk **/
+		public boolean next() {
+			if (this.node == null) return false;
+			this.node = nextNode(this.node);
+			return this.node != null;
+		}
+
+		/** moving to the in order predecessor - complexity O(1) amortized over a walk **/
+		public boolean prev() {
+			if (this.node == null) return false;
+			this.node = prevNode(this.node);
+			return this.node != null;
+		}
+
+		/** returns true if the cursor is on an item O(1) **/
+		public boolean valid() {
+			return this.node != null;
+		}
+
+		/** returns the key of the current item, throws NoSuchElementException if there is none O(1) **/
+		public int key() {
+			if (this.node == null) throw new NoSuchElementException();
+			return this.node.getKey();
+		}
+
+		/** returns the info of the current item, throws NoSuchElementException if there is none O(1) **/
+		public String value() {
+			if (this.node == null) throw new NoSuchElementException();
+			return this.node.getValue();
+		}
+	}
+
+	/**
+	 * public interface IAVLNode
+	 * ! Do not delete or modify this - otherwise all tests will fail !
+	 */
+	public interface IAVLNode {
+		int getKey(); //returns node's key (for virtual-val node return -1)
+
+		String getValue(); //returns node's value [info] (for virtual-val node return null)
+
+		void setLeft(IAVLNode node); //sets left child
+
+		IAVLNode getLeft(); //returns left child (if there is no left child return null)
+
+		void setRight(IAVLNode node); //sets right child
+
+		IAVLNode getRight(); //returns right child (if there is no right child return null)
+
+		void setParent(IAVLNode node); //sets parent
+
+		IAVLNode getParent(); //returns the parent (if there is no parent return null)
+
+		boolean isRealNode(); // Returns True if this is a non-virtual AVL node
+
+		void setHeight(int height); // sets the height of the node
+
+		int getHeight(); // Returns the height of the node (-1 for virtual nodes)
+
+		int getSize(); // Returns the size of the node
+
+		void setSize(int size); // sets the size of the node
+
+	}
+
+	/**
+	 * public class AVLNode
+	 * <p>
+	 * If you wish to implement classes other than AVLTree
+	 * (for example AVLNode), do it in this file, not in
+	 * another file.
+	 * This class can and must be modified.
+	 * (It must implement IAVLNode)
+	 */
+	public class AVLNode implements IAVLNode {
+		private int key;
+		private String value;
+		private IAVLNode parent;
+		private IAVLNode left;
+		private IAVLNode right;
+		private int rank;
+		private int size;
+		public AVLNode(int key,String value) {
+			this.key = key;
+			this.value = value;
+			this.parent = null;
+			if (sharedExternal) {
+				this.left = EXTERNAL;
+				this.right = EXTERNAL;
+			}
+			else {
+				AVLNode l = new AVLNode();
+				AVLNode r = new AVLNode();
+				r.setParent(this);
+				l.setParent(this);
+				this.left = l;
+				this.right = r;
+			}
+			this.size=1;
+			this.rank = 0;
+		}
+
+		/* constructor of external node */
+		public AVLNode() {
+			this.key = -1;
+			this.value = null;
+			this.parent = null;
+			this.left = null;
+			this.right = null;
+			this.size=0;
+			this.rank = -1;
+		}
+
+		/* All of the following methods are either setting a field in an AVLNode or reading a value from it,
+		thus making all of those methods O(1)
+
+		 */
+		public int getKey() {
+			return this.key;
+		}
+
+		public String getValue() {
+			return this.value;
+		}
+		public void setLeft (IAVLNode node) {
+			this.left = node;
+		}
+		public IAVLNode getLeft () {
 			return this.left;
 		}
 		public void setRight(IAVLNode node) {
@@ -1041,6 +2783,4014 @@ public class AVLTree {
 		}
 	}
 
+	/**
+	 * public class AggregateNode
+	 * <p>
+	 * the real node of a tree with a monoid: an AVLNode with the lifted value of its item and the aggregate
+	 * of its subtree. only the trees with a monoid allocate it, so the nodes of the other trees keep their 48 bytes.
+	 */
+	public class AggregateNode extends AVLNode {
+		private long lifted; // the value of the item in the monoid of the tree
+		private long aggregate; // the monoid aggregate of the items of the subtree
+
+		public AggregateNode(int key, String value) {
+			super(key, value);
+			this.lifted = monoid.lift(key, value);
+			this.aggregate = this.lifted;
+		}
+
+		public void setSize(int i) {
+			super.setSize(i);
+			// every change of the children is followed by a new size, from the bottom up
+			refreshAggregate();
+		}
+
+		/** recomputing the aggregate from the children O(1) **/
+		private void refreshAggregate() {
+			this.aggregate = monoid.combine(monoid.combine(aggregateOf(this.getLeft()), this.lifted), aggregateOf(this.getRight()));
+		}
+	}
+
+	/**
+	 * private static class ExternalNode
+	 * <p>
+	 * the immutable virtual node shared by the trees in shared-external mode.
+	 * it has no parent and no children, so every setter is an error.
+	 */
+	private static final class ExternalNode implements IAVLNode {
+		public int getKey() {
+			return -1;
+		}
+		public String getValue() {
+			return null;
+		}
+		public void setLeft(IAVLNode node) {
+			throw new UnsupportedOperationException("the shared external node is immutable");
+		}
+		public IAVLNode getLeft() {
+			return null;
+		}
+		public void setRight(IAVLNode node) {
+			throw new UnsupportedOperationException("the shared external node is immutable");
+		}
+		public IAVLNode getRight() {
+			return null;
+		}
+		public void setParent(IAVLNode node) {
+			throw new UnsupportedOperationException("the shared external node is immutable");
+		}
+		public IAVLNode getParent() {
+			return null;
+		}
+		public boolean isRealNode() {
+			return false;
+		}
+		public void setHeight(int height) {
+			throw new UnsupportedOperationException("the shared external node is immutable");
+		}
+		public int getHeight() {
+			return -1;
+		}
+		public int getSize() {
+			return 0;
+		}
+		public void setSize(int size) {
+			throw new UnsupportedOperationException("the shared external node is immutable");
+		}
+	}
+
+	/**
+	 * protected abstract static class SlotStore
+	 * <p>
+	 * storage of AVL nodes in parallel arrays, a node is an index (slot) into the arrays.
+	 * slot 0 (NIL) is the virtual node - rank -1 and size 0, so the leaves don't need any object.
+	 * deleted slots are kept in a free list linked through the right array.
+	 * the store keeps the topology only (children, parent, rank, size) and the re-balancing,
+	 * the subclasses keep the keys and the info of the slots.
+	 * all the trees that are created from each other by split share one store.
+	 */
+	protected abstract static class SlotStore {
+		protected static final int NIL = 0;
+
+		protected int[] left;
+		protected int[] right;
+		protected int[] parent;
+		protected int[] size;
+		protected byte[] rank;
+		protected int free;  // head of the free list
+		protected int next;  // first slot that was never used
+		protected int ops;   // re-balancing operations counted by the last operation
+		protected int lower; // the trees of the last split
+		protected int upper;
+
+		protected SlotStore(int capacity) {
+			capacity = Math.max(capacity, 2);
+			this.left = new int[capacity];
+			this.right = new int[capacity];
+			this.parent = new int[capacity];
+			this.size = new int[capacity];
+			this.rank = new byte[capacity];
+			this.rank[NIL] = -1;
+			this.free = NIL;
+			this.next = 1;
+		}
+
+		/** growing the arrays of the keys and the info to the given capacity O(n) **/
+		protected abstract void growEntries(int capacity);
+
+		/** dropping the references held by a released slot O(1) **/
+		protected abstract void clearEntry(int s);
+
+		/** copying the key and the info of one slot to another O(1) **/
+		protected abstract void copyEntry(int from, int to);
+
+		/** returning a slot for a new leaf, from the free list if possible - complexity O(1) amortized **/
+		protected int allocate() {
+			int s;
+			if (this.free != NIL) {
+				s = this.free;
+				this.free = this.right[s];
+			}
+			else {
+				if (this.next == this.left.length) grow(this.left.length + (this.left.length >> 1));
+				s = this.next++;
+			}
+			this.left[s] = NIL;
+			this.right[s] = NIL;
+			this.parent[s] = NIL;
+			this.rank[s] = 0;
+			this.size[s] = 1;
+			return s;
+		}
+
+		/** putting a slot in the free list O(1) **/
+		protected void release(int s) {
+			clearEntry(s);
+			this.right[s] = this.free;
+			this.free = s;
+		}
+
+		/** growing all the arrays to the given capacity O(n) **/
+		protected void grow(int capacity) {
+			this.left = Arrays.copyOf(this.left, capacity);
+			this.right = Arrays.copyOf(this.right, capacity);
+			this.parent = Arrays.copyOf(this.parent, capacity);
+			this.size = Arrays.copyOf(this.size, capacity);
+			this.rank = Arrays.copyOf(this.rank, capacity);
+			growEntries(capacity);
+		}
+
+		/** updating the rank and the size of a slot from its children O(1) **/
+		protected void update(int s) {
+			int l = this.left[s];
+			int r = this.right[s];
+			this.rank[s] = (byte) (Math.max(this.rank[l], this.rank[r]) + 1);
+			this.size[s] = this.size[l] + this.size[r] + 1;
+		}
+
+		/** replacing the child old of p by c, p might be NIL when old is a root O(1) **/
+		protected void replaceChild(int p, int old, int c) {
+			if (p != NIL) {
+				if (this.left[p] == old) this.left[p] = c;
+				else this.right[p] = c;
+			}
+			if (c != NIL) this.parent[c] = p;
+		}
+
+		/** setting l and r as the children of x O(1) **/
+		protected void link(int x, int l, int r) {
+			this.left[x] = l;
+			this.right[x] = r;
+			if (l != NIL) this.parent[l] = x;
+			if (r != NIL) this.parent[r] = x;
+			update(x);
+		}
+
+		/** rotating x with its left child, returns the new root of the subtree O(1) **/
+		protected int rotateRight(int x) {
+			int y = this.left[x];
+			int p = this.parent[x];
+			int middle = this.right[y];
+			this.left[x] = middle;
+			if (middle != NIL) this.parent[middle] = x;
+			this.right[y] = x;
+			this.parent[x] = y;
+			replaceChild(p, x, y);
+			update(x);
+			update(y);
+			this.ops++;
+			return y;
+		}
+
+		/** rotating x with its right child, returns the new root of the subtree O(1) **/
+		protected int rotateLeft(int x) {
+			int y = this.right[x];
+			int p = this.parent[x];
+			int middle = this.left[y];
+			this.right[x] = middle;
+			if (middle != NIL) this.parent[middle] = x;
+			this.left[y] = x;
+			this.parent[x] = y;
+			replaceChild(p, x, y);
+			update(x);
+			update(y);
+			this.ops++;
+			return y;
+		}
+
+		/** fixing the rank of s and rotating if it is not balanced, returns the root of the subtree O(1) **/
+		protected int balance(int s) {
+			int oldRank = this.rank[s];
+			update(s);
+			int diff = this.rank[this.left[s]] - this.rank[this.right[s]];
+			if (diff > 1) {
+				int l = this.left[s];
+				if (this.rank[this.left[l]] < this.rank[this.right[l]]) rotateLeft(l);
+				return rotateRight(s);
+			}
+			if (diff < -1) {
+				int r = this.right[s];
+				if (this.rank[this.right[r]] < this.rank[this.left[r]]) rotateRight(r);
+				return rotateLeft(s);
+			}
+			if (this.rank[s] != oldRank) this.ops++; // promotion or demotion
+			return s;
+		}
+
+		/** balancing all the slots from s up to the root, returns the root - complexity O(log n) **/
+		protected int rebalanceUp(int s) {
+			int top = NIL;
+			while (s != NIL) {
+				int p = this.parent[s];
+				top = balance(s);
+				s = p;
+			}
+			return top;
+		}
+
+		/** removing the slot s from its tree and releasing it, returns the new root - complexity O(log n) **/
+		protected int remove(int s) {
+			// binary slot - its successor has at most one child, it takes the place of s
+			if (this.left[s] != NIL && this.right[s] != NIL) {
+				int suc = this.right[s];
+				while (this.left[suc] != NIL) suc = this.left[suc];
+				copyEntry(suc, s);
+				s = suc;
+			}
+			int child = this.left[s] != NIL ? this.left[s] : this.right[s];
+			int p = this.parent[s];
+			replaceChild(p, s, child);
+			release(s);
+			if (p == NIL) return child;
+			return rebalanceUp(p);
+		}
+
+		/**
+		 * joining the trees of the roots l and r with the slot x in between, keys(l) < x < keys(r).
+		 * returns the root of the joined tree - complexity O(|rank(l) - rank(r)| + 1)
+		 */
+		protected int join(int l, int x, int r) {
+			if (this.rank[l] > this.rank[r] + 1) {
+				// going down the right spine of l to a slot with rank <= rank(r) + 1
+				int p = NIL;
+				int c = l;
+				while (this.rank[c] > this.rank[r] + 1) {
+					p = c;
+					c = this.right[c];
+				}
+				link(x, c, r);
+				this.right[p] = x;
+				this.parent[x] = p;
+				return rebalanceUp(p);
+			}
+			if (this.rank[r] > this.rank[l] + 1) {
+				// symmetric - going down the left spine of r
+				int p = NIL;
+				int c = r;
+				while (this.rank[c] > this.rank[l] + 1) {
+					p = c;
+					c = this.left[c];
+				}
+				link(x, l, c);
+				this.left[p] = x;
+				this.parent[x] = p;
+				return rebalanceUp(p);
+			}
+			link(x, l, r);
+			this.parent[x] = NIL;
+			return x;
+		}
+
+		/**
+		 * splitting a tree bottom up, starting with the trees l and r below the slot a.
+		 * fromRight tells if l and r were in the right subtree of a.
+		 * the results are kept in lower and upper - complexity O(log n)
+		 */
+		protected void splitUp(int a, boolean fromRight, int l, int r) {
+			if (l != NIL) this.parent[l] = NIL;
+			if (r != NIL) this.parent[r] = NIL;
+			while (a != NIL) {
+				int p = this.parent[a];
+				boolean nextFromRight = p != NIL && this.right[p] == a;
+				if (fromRight) {
+					int sub = this.left[a];
+					if (sub != NIL) this.parent[sub] = NIL;
+					l = join(sub, a, l);
+				}
+				else {
+					int sub = this.right[a];
+					if (sub != NIL) this.parent[sub] = NIL;
+					r = join(r, a, sub);
+				}
+				a = p;
+				fromRight = nextFromRight;
+			}
+			this.lower = l;
+			this.upper = r;
+		}
+
+		/** returning the slot with the smallest key in the subtree of s O(log n) **/
+		protected int first(int s) {
+			if (s == NIL) return NIL;
+			while (this.left[s] != NIL) s = this.left[s];
+			return s;
+		}
+
+		/** returning the slot with the largest key in the subtree of s O(log n) **/
+		protected int last(int s) {
+			if (s == NIL) return NIL;
+			while (this.right[s] != NIL) s = this.right[s];
+			return s;
+		}
+
+		/** returning the in order successor of s or NIL - complexity O(1) amortized **/
+		protected int successor(int s) {
+			if (this.right[s] != NIL) return first(this.right[s]);
+			int p = this.parent[s];
+			while (p != NIL && this.right[p] == s) {
+				s = p;
+				p = this.parent[p];
+			}
+			return p;
+		}
+
+		/** returning the slot of the i-th smallest key (from 0) in the subtree of s O(log n) **/
+		protected int select(int s, int i) {
+			while (true) {
+				int leftSize = this.size[this.left[s]];
+				if (i == leftSize) return s;
+				if (i < leftSize) {
+					s = this.left[s];
+				}
+				else {
+					i -= leftSize + 1;
+					s = this.right[s];
+				}
+			}
+		}
+
+		/** copying the key and the info of a slot of another store of the same class to a slot of this store O(1) **/
+		protected abstract void copyEntryFrom(SlotStore other, int from, int to);
+
+		/** copying the tree of the root r of another store into new slots of this store, returns the new root O(m) **/
+		protected int importTree(SlotStore other, int r) {
+			int[] order = new int[other.size[r]];
+			int i = 0;
+			for (int s = other.first(r); i < order.length; s = other.successor(s)) order[i++] = s;
+			return importSlots(other, order, 0, order.length);
+		}
+
+		/** building a balanced tree of new slots from the slots order[lo, hi) of another store O(n) **/
+		private int importSlots(SlotStore other, int[] order, int lo, int hi) {
+			if (lo >= hi) return NIL;
+			int mid = (lo + hi) >>> 1;
+			int l = importSlots(other, order, lo, mid);
+			int s = allocate();
+			copyEntryFrom(other, order[mid], s);
+			int r = importSlots(other, order, mid + 1, hi);
+			link(s, l, r);
+			return s;
+		}
+	}
+
+	/**
+	 * protected static class IntStringStore
+	 * <p>
+	 * slot store with int keys and String info
+	 */
+	protected static final class IntStringStore extends SlotStore {
+		protected int[] keys;
+		protected String[] values;
+
+		protected IntStringStore(int capacity) {
+			super(capacity);
+			this.keys = new int[this.left.length];
+			this.values = new String[this.left.length];
+		}
+
+		protected void growEntries(int capacity) {
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+
+		protected void clearEntry(int s) {
+			this.values[s] = null;
+		}
+
+		protected void copyEntry(int from, int to) {
+			this.keys[to] = this.keys[from];
+			this.values[to] = this.values[from];
+		}
+
+		protected void copyEntryFrom(SlotStore other, int from, int to) {
+			IntStringStore o = (IntStringStore) other;
+			this.keys[to] = o.keys[from];
+			this.values[to] = o.values[from];
+		}
+	}
+
+	/**
+	 * protected static class LongObjectStore
+	 * <p>
+	 * slot store with long keys and object info
+	 */
+	protected static final class LongObjectStore extends SlotStore {
+		protected long[] keys;
+		protected Object[] values;
+
+		protected LongObjectStore(int capacity) {
+			super(capacity);
+			this.keys = new long[this.left.length];
+			this.values = new Object[this.left.length];
+		}
+
+		protected void growEntries(int capacity) {
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+
+		protected void clearEntry(int s) {
+			this.values[s] = null;
+		}
+
+		protected void copyEntry(int from, int to) {
+			this.keys[to] = this.keys[from];
+			this.values[to] = this.values[from];
+		}
+
+		protected void copyEntryFrom(SlotStore other, int from, int to) {
+			LongObjectStore o = (LongObjectStore) other;
+			this.keys[to] = o.keys[from];
+			this.values[to] = o.values[from];
+		}
+	}
+
+	/**
+	 * protected static class IntLongStore
+	 * <p>
+	 * slot store with int keys and long info, no references at all
+	 */
+	protected static final class IntLongStore extends SlotStore {
+		protected int[] keys;
+		protected long[] values;
+
+		protected IntLongStore(int capacity) {
+			super(capacity);
+			this.keys = new int[this.left.length];
+			this.values = new long[this.left.length];
+		}
+
+		protected void growEntries(int capacity) {
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+
+		protected void clearEntry(int s) {
+		}
+
+		protected void copyEntry(int from, int to) {
+			this.keys[to] = this.keys[from];
+			this.values[to] = this.values[from];
+		}
+
+		protected void copyEntryFrom(SlotStore other, int from, int to) {
+			IntLongStore o = (IntLongStore) other;
+			this.keys[to] = o.keys[from];
+			this.values[to] = o.values[from];
+		}
+	}
+
+	/**
+	 * protected static class ObjectStore
+	 * <p>
+	 * slot store with object keys and object info
+	 */
+	protected static final class ObjectStore extends SlotStore {
+		protected Object[] keys;
+		protected Object[] values;
+
+		protected ObjectStore(int capacity) {
+			super(capacity);
+			this.keys = new Object[this.left.length];
+			this.values = new Object[this.left.length];
+		}
+
+		protected void growEntries(int capacity) {
+			this.keys = Arrays.copyOf(this.keys, capacity);
+			this.values = Arrays.copyOf(this.values, capacity);
+		}
+
+		protected void clearEntry(int s) {
+			this.keys[s] = null;
+			this.values[s] = null;
+		}
+
+		protected void copyEntry(int from, int to) {
+			this.keys[to] = this.keys[from];
+			this.values[to] = this.values[from];
+		}
+
+		protected void copyEntryFrom(SlotStore other, int from, int to) {
+			ObjectStore o = (ObjectStore) other;
+			this.keys[to] = o.keys[from];
+			this.values[to] = o.values[from];
+		}
+	}
+
+	/**
+	 * protected abstract static class SlotTree
+	 * <p>
+	 * the part of a tree over a SlotStore that doesn't depend on the type of the keys:
+	 * the root, the min and max slots, linking and removing slots, split and join.
+	 * the subclasses walk down their own typed key array to find the place of a key,
+	 * so every descent compares primitives (or calls one comparator) with no boxing.
+	 */
+	protected abstract static class SlotTree<S extends SlotStore> {
+		protected static final int NIL = SlotStore.NIL;
+
+		protected final S store;
+		protected int root;
+		protected int min;
+		protected int max;
+
+		protected SlotTree(S store, int root) {
+			this.store = store;
+			this.root = root;
+			updateMinMax();
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(1)
+		 */
+		public boolean empty() {
+			return this.root == NIL;
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of items in the tree.
+		 * complexity O(1)
+		 */
+		public int size() {
+			return this.store.size[this.root];
+		}
+
+		/** linking the new slot s as the left or right child of p and re-balancing, returns the operations - complexity O(log n) **/
+		protected int attach(int p, int s, boolean left) {
+			S st = this.store;
+			st.ops = 0;
+			if (p == NIL) {
+				this.root = s;
+				this.min = s;
+				this.max = s;
+				return 0;
+			}
+			if (left) st.left[p] = s;
+			else st.right[p] = s;
+			st.parent[s] = p;
+			this.root = st.rebalanceUp(p);
+			// a new left child of the min is the new min, a new right child of the max is the new max
+			if (left && p == this.min) this.min = s;
+			if (!left && p == this.max) this.max = s;
+			return st.ops;
+		}
+
+		/** removing the slot s from the tree, returns the re-balancing operations - complexity O(log n) **/
+		protected int detach(int s) {
+			this.store.ops = 0;
+			this.root = this.store.remove(s);
+			updateMinMax();
+			return this.store.ops;
+		}
+
+		/**
+		 * splitting the tree at the slot found, or below the slot p (fromRight tells on which side) if the key is absent.
+		 * the found slot is released, the trees are left in store.lower and store.upper and this tree is left empty.
+		 * complexity O(log n)
+		 */
+		protected void splitAt(int found, int p, boolean fromRight) {
+			S st = this.store;
+			if (found == NIL) {
+				st.splitUp(p, fromRight, NIL, NIL);
+			}
+			else {
+				int l = st.left[found];
+				int r = st.right[found];
+				int a = st.parent[found];
+				boolean right = a != NIL && st.right[a] == found;
+				st.release(found);
+				st.splitUp(a, right, l, r);
+			}
+			this.root = NIL;
+			updateMinMax();
+		}
+
+		/** taking the root of t into the store of this tree, copying it if t has another store. t is left empty - complexity O(1) or O(|t|) **/
+		protected int adopt(SlotTree<S> t) {
+			int other = t.root;
+			if (t.store != this.store) other = this.store.importTree(t.store, t.root);
+			t.root = NIL;
+			t.updateMinMax();
+			return other;
+		}
+
+		/** joining the tree with the slot x and the tree of the root other, returns |rank - other rank| + 1 - complexity O(log n) **/
+		protected int joinSlots(int other, int x, boolean otherIsLower) {
+			S st = this.store;
+			int complexity = Math.abs(st.rank[this.root] - st.rank[other]) + 1;
+			if (otherIsLower) this.root = st.join(other, x, this.root);
+			else this.root = st.join(this.root, x, other);
+			updateMinMax();
+			return complexity;
+		}
+
+		/** returning the slot of the i-th smallest key (from 0) - complexity O(log n) **/
+		protected int selectSlot(int i) {
+			if (i < 0 || i >= size()) throw new IndexOutOfBoundsException("index " + i + ", size " + size());
+			return this.store.select(this.root, i);
+		}
+
+		/** updating the min and max slots of the tree - complexity O(log n) **/
+		protected void updateMinMax() {
+			this.min = this.store.first(this.root);
+			this.max = this.store.last(this.root);
+		}
+	}
+
+	/**
+	 * public static class ArrayAVLTree
+	 * <p>
+	 * AVL tree with distinct integer keys and info with the same contract as AVLTree,
+	 * the nodes are slots of an IntStringStore instead of AVLNode objects.
+	 * an entry costs an int key, a String reference, 4 ints of links and size and a byte of rank -
+	 * 25 bytes with compressed oops (+ the unused capacity of the arrays) instead of about 96 bytes
+	 * for AVLNode objects, and search reads the keys and the children from arrays with no object headers.
+	 * the trees returned by split share the store of the tree they came from.
+	 */
+	public static class ArrayAVLTree extends SlotTree<IntStringStore> {
+
+		public ArrayAVLTree() {
+			this(16);
+		}
+
+		/** creates an empty tree with room for capacity keys before the arrays grow **/
+		public ArrayAVLTree(int capacity) {
+			this(new IntStringStore(capacity + 1), NIL);
+		}
+
+		protected ArrayAVLTree(IntStringStore store, int root) {
+			super(store, root);
+		}
+
+		/**
+		 * public String search(int k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		public String search(int k) {
+			int s = find(k);
+			if (s == NIL) return null;
+			return this.store.values[s];
+		}
+
+		/**
+		 * public int insert(int k, String i)
+		 * <p>
+		 * inserts an item with key k and info i to the tree.
+		 * returns the number of re-balancing operations (promotions and rotations),
+		 * or -1 if an item with key k already exists in the tree.
+		 * complexity O(log n)
+		 */
+		public int insert(int k, String i) {
+			IntStringStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean left = false;
+			while (curr != NIL) {
+				int key = st.keys[curr];
+				if (key == k) return -1;
+				p = curr;
+				left = k < key;
+				curr = left ? st.left[curr] : st.right[curr];
+			}
+			int s = st.allocate();
+			st.keys[s] = k;
+			st.values[s] = i;
+			return attach(p, s, left);
+		}
+
+		/**
+		 * public int delete(int k)
+		 * <p>
+		 * deletes an item with key k from the tree, if it is there.
+		 * returns the number of re-balancing operations (demotions and rotations),
+		 * or -1 if an item with key k was not found in the tree.
+		 * complexity O(log n)
+		 */
+		public int delete(int k) {
+			int s = find(k);
+			if (s == NIL) return -1;
+			return detach(s);
+		}
+
+		/**
+		 * public String min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String min() {
+			if (empty()) return null;
+			return this.store.values[this.min];
+		}
+
+		/**
+		 * public String max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String max() {
+			if (empty()) return null;
+			return this.store.values[this.max];
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys in the tree,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public int[] keysToArray() {
+			int[] result = new int[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.keys[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public String[] infoToArray()
+		 * <p>
+		 * Returns an array which contains all info in the tree,
+		 * sorted by their respective keys,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public String[] infoToArray() {
+			String[] result = new String[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.values[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public int select(int i)
+		 * <p>
+		 * Returns the i-th smallest key in the tree, counting from 0.
+		 * throws IndexOutOfBoundsException if i is not in [0, size()).
+		 * complexity O(log n)
+		 */
+		public int select(int i) {
+			return this.store.keys[selectSlot(i)];
+		}
+
+		/**
+		 * public int rank(int k)
+		 * <p>
+		 * Returns the number of keys in the tree that are smaller than k.
+		 * complexity O(log n)
+		 */
+		public int rank(int k) {
+			IntStringStore st = this.store;
+			int result = 0;
+			int curr = this.root;
+			while (curr != NIL) {
+				if (st.keys[curr] < k) {
+					result += st.size[st.left[curr]] + 1;
+					curr = st.right[curr];
+				}
+				else {
+					curr = st.left[curr];
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * public ArrayAVLTree[] split(int x)
+		 * <p>
+		 * splits the tree into 2 trees according to the key x.
+		 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2), the item with key x is removed.
+		 * the two trees share the store of this tree, which is left empty.
+		 * complexity O(log n)
+		 */
+		public ArrayAVLTree[] split(int x) {
+			IntStringStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean fromRight = false;
+			while (curr != NIL && st.keys[curr] != x) {
+				p = curr;
+				fromRight = x > st.keys[curr];
+				curr = fromRight ? st.right[curr] : st.left[curr];
+			}
+			splitAt(curr, p, fromRight);
+			ArrayAVLTree[] result = new ArrayAVLTree[2];
+			result[0] = new ArrayAVLTree(st, st.lower);
+			result[1] = new ArrayAVLTree(st, st.upper);
+			return result;
+		}
+
+		/**
+		 * public int join(int k, String i, ArrayAVLTree t)
+		 * <p>
+		 * joins t and a new item (k, i) with the tree, t is left empty.
+		 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+		 * precondition: keys(t) < k < keys() or keys(t) > k > keys().
+		 * a tree of another store is copied into the store of this tree first, in O(|t|).
+		 * complexity O(log n)
+		 */
+		public int join(int k, String i, ArrayAVLTree t) {
+			IntStringStore st = this.store;
+			int other = adopt(t);
+			int x = st.allocate();
+			st.keys[x] = k;
+			st.values[x] = i;
+			boolean otherIsLower = other != NIL ? st.keys[other] < k : this.root != NIL && st.keys[this.root] > k;
+			return joinSlots(other, x, otherIsLower);
+		}
+
+		/** searching the slot by the given key, NIL if it is not in the tree - complexity O(log n) **/
+		protected int find(int k) {
+			IntStringStore st = this.store;
+			int curr = this.root;
+			while (curr != NIL) {
+				int key = st.keys[curr];
+				if (key == k) return curr;
+				curr = k < key ? st.left[curr] : st.right[curr];
+			}
+			return NIL;
+		}
+	}
+
+	/**
+	 * public static class LongObjectAVLTree
+	 * <p>
+	 * AVL tree with distinct long keys (e.g. timestamps) and info of any type V.
+	 * the keys are kept unboxed in a long array of a LongObjectStore, so search, insert, delete,
+	 * split and join compare primitives and never allocate a key object.
+	 * same contract as ArrayAVLTree otherwise.
+	 */
+	public static class LongObjectAVLTree<V> extends SlotTree<LongObjectStore> {
+
+		public LongObjectAVLTree() {
+			this(16);
+		}
+
+		/** creates an empty tree with room for capacity keys before the arrays grow **/
+		public LongObjectAVLTree(int capacity) {
+			this(new LongObjectStore(capacity + 1), NIL);
+		}
+
+		protected LongObjectAVLTree(LongObjectStore store, int root) {
+			super(store, root);
+		}
+
+		/**
+		 * public V search(long k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		@SuppressWarnings("unchecked")
+		public V search(long k) {
+			int s = find(k);
+			if (s == NIL) return null;
+			return (V) this.store.values[s];
+		}
+
+		/**
+		 * public int insert(long k, V i)
+		 * <p>
+		 * inserts an item with key k and info i to the tree.
+		 * returns the number of re-balancing operations (promotions and rotations),
+		 * or -1 if an item with key k already exists in the tree.
+		 * complexity O(log n)
+		 */
+		public int insert(long k, V i) {
+			LongObjectStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean left = false;
+			while (curr != NIL) {
+				long key = st.keys[curr];
+				if (key == k) return -1;
+				p = curr;
+				left = k < key;
+				curr = left ? st.left[curr] : st.right[curr];
+			}
+			int s = st.allocate();
+			st.keys[s] = k;
+			st.values[s] = i;
+			return attach(p, s, left);
+		}
+
+		/**
+		 * public int delete(long k)
+		 * <p>
+		 * deletes an item with key k from the tree, if it is there.
+		 * returns the number of re-balancing operations (demotions and rotations),
+		 * or -1 if an item with key k was not found in the tree.
+		 * complexity O(log n)
+		 */
+		public int delete(long k) {
+			int s = find(k);
+			if (s == NIL) return -1;
+			return detach(s);
+		}
+
+		/**
+		 * public V min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		@SuppressWarnings("unchecked")
+		public V min() {
+			if (empty()) return null;
+			return (V) this.store.values[this.min];
+		}
+
+		/**
+		 * public V max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		@SuppressWarnings("unchecked")
+		public V max() {
+			if (empty()) return null;
+			return (V) this.store.values[this.max];
+		}
+
+		/**
+		 * public long[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys in the tree,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public long[] keysToArray() {
+			long[] result = new long[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.keys[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public Object[] infoToArray()
+		 * <p>
+		 * Returns an array which contains all info in the tree,
+		 * sorted by their respective keys,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public Object[] infoToArray() {
+			Object[] result = new Object[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.values[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public long select(int i)
+		 * <p>
+		 * Returns the i-th smallest key in the tree, counting from 0.
+		 * throws IndexOutOfBoundsException if i is not in [0, size()).
+		 * complexity O(log n)
+		 */
+		public long select(int i) {
+			return this.store.keys[selectSlot(i)];
+		}
+
+		/**
+		 * public int rank(long k)
+		 * <p>
+		 * Returns the number of keys in the tree that are smaller than k.
+		 * complexity O(log n)
+		 */
+		public int rank(long k) {
+			LongObjectStore st = this.store;
+			int result = 0;
+			int curr = this.root;
+			while (curr != NIL) {
+				if (st.keys[curr] < k) {
+					result += st.size[st.left[curr]] + 1;
+					curr = st.right[curr];
+				}
+				else {
+					curr = st.left[curr];
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * public LongObjectAVLTree<V>[] split(long x)
+		 * <p>
+		 * splits the tree into 2 trees according to the key x.
+		 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2), the item with key x is removed.
+		 * the two trees share the store of this tree, which is left empty.
+		 * complexity O(log n)
+		 */
+		public LongObjectAVLTree<V>[] split(long x) {
+			LongObjectStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean fromRight = false;
+			while (curr != NIL && st.keys[curr] != x) {
+				p = curr;
+				fromRight = x > st.keys[curr];
+				curr = fromRight ? st.right[curr] : st.left[curr];
+			}
+			splitAt(curr, p, fromRight);
+			LongObjectAVLTree<V>[] result = newArray(2);
+			result[0] = new LongObjectAVLTree<>(st, st.lower);
+			result[1] = new LongObjectAVLTree<>(st, st.upper);
+			return result;
+		}
+
+		/**
+		 * public int join(long k, V i, LongObjectAVLTree<V> t)
+		 * <p>
+		 * joins t and a new item (k, i) with the tree, t is left empty.
+		 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+		 * precondition: keys(t) < k < keys() or keys(t) > k > keys().
+		 * a tree of another store is copied into the store of this tree first, in O(|t|).
+		 * complexity O(log n)
+		 */
+		public int join(long k, V i, LongObjectAVLTree<V> t) {
+			LongObjectStore st = this.store;
+			int other = adopt(t);
+			int x = st.allocate();
+			st.keys[x] = k;
+			st.values[x] = i;
+			boolean otherIsLower = other != NIL ? st.keys[other] < k : this.root != NIL && st.keys[this.root] > k;
+			return joinSlots(other, x, otherIsLower);
+		}
+
+		/** a LongObjectAVLTree<V>[] of the given length, an array of a generic class can't be created directly - complexity O(n) **/
+		@SuppressWarnings("unchecked")
+		private static <V> LongObjectAVLTree<V>[] newArray(int length) {
+			return (LongObjectAVLTree<V>[]) new LongObjectAVLTree<?>[length];
+		}
+
+		/** searching the slot by the given key, NIL if it is not in the tree - complexity O(log n) **/
+		protected int find(long k) {
+			LongObjectStore st = this.store;
+			int curr = this.root;
+			while (curr != NIL) {
+				long key = st.keys[curr];
+				if (key == k) return curr;
+				curr = k < key ? st.left[curr] : st.right[curr];
+			}
+			return NIL;
+		}
+	}
+
+	/**
+	 * public static class IntLongAVLTree
+	 * <p>
+	 * AVL tree with distinct int keys and long info, both kept unboxed in the arrays of an IntLongStore -
+	 * the tree holds no references at all. since a long has no null, search takes the value
+	 * to return for a missing key, and min and max throw NoSuchElementException on an empty tree.
+	 * same contract as ArrayAVLTree otherwise.
+	 */
+	public static class IntLongAVLTree extends SlotTree<IntLongStore> {
+
+		public IntLongAVLTree() {
+			this(16);
+		}
+
+		/** creates an empty tree with room for capacity keys before the arrays grow **/
+		public IntLongAVLTree(int capacity) {
+			this(new IntLongStore(capacity + 1), NIL);
+		}
+
+		protected IntLongAVLTree(IntLongStore store, int root) {
+			super(store, root);
+		}
+
+		/**
+		 * public long search(int k, long notFound)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns notFound
+		 * complexity O(log n)
+		 */
+		public long search(int k, long notFound) {
+			int s = find(k);
+			if (s == NIL) return notFound;
+			return this.store.values[s];
+		}
+
+		/**
+		 * public boolean contains(int k)
+		 * <p>
+		 * returns true if and only if an item with key k is in the tree
+		 * complexity O(log n)
+		 */
+		public boolean contains(int k) {
+			return find(k) != NIL;
+		}
+
+		/**
+		 * public int insert(int k, long i)
+		 * <p>
+		 * inserts an item with key k and info i to the tree.
+		 * returns the number of re-balancing operations (promotions and rotations),
+		 * or -1 if an item with key k already exists in the tree.
+		 * complexity O(log n)
+		 */
+		public int insert(int k, long i) {
+			IntLongStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean left = false;
+			while (curr != NIL) {
+				int key = st.keys[curr];
+				if (key == k) return -1;
+				p = curr;
+				left = k < key;
+				curr = left ? st.left[curr] : st.right[curr];
+			}
+			int s = st.allocate();
+			st.keys[s] = k;
+			st.values[s] = i;
+			return attach(p, s, left);
+		}
+
+		/**
+		 * public int delete(int k)
+		 * <p>
+		 * deletes an item with key k from the tree, if it is there.
+		 * returns the number of re-balancing operations (demotions and rotations),
+		 * or -1 if an item with key k was not found in the tree.
+		 * complexity O(log n)
+		 */
+		public int delete(int k) {
+			int s = find(k);
+			if (s == NIL) return -1;
+			return detach(s);
+		}
+
+		/**
+		 * public long min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree.
+		 * throws NoSuchElementException if the tree is empty
+		 * complexity O(1)
+		 */
+		public long min() {
+			if (empty()) throw new NoSuchElementException("the tree is empty");
+			return this.store.values[this.min];
+		}
+
+		/**
+		 * public long max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree.
+		 * throws NoSuchElementException if the tree is empty
+		 * complexity O(1)
+		 */
+		public long max() {
+			if (empty()) throw new NoSuchElementException("the tree is empty");
+			return this.store.values[this.max];
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys in the tree,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public int[] keysToArray() {
+			int[] result = new int[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.keys[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public long[] infoToArray()
+		 * <p>
+		 * Returns an array which contains all info in the tree,
+		 * sorted by their respective keys,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public long[] infoToArray() {
+			long[] result = new long[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.values[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public int select(int i)
+		 * <p>
+		 * Returns the i-th smallest key in the tree, counting from 0.
+		 * throws IndexOutOfBoundsException if i is not in [0, size()).
+		 * complexity O(log n)
+		 */
+		public int select(int i) {
+			return this.store.keys[selectSlot(i)];
+		}
+
+		/**
+		 * public int rank(int k)
+		 * <p>
+		 * Returns the number of keys in the tree that are smaller than k.
+		 * complexity O(log n)
+		 */
+		public int rank(int k) {
+			IntLongStore st = this.store;
+			int result = 0;
+			int curr = this.root;
+			while (curr != NIL) {
+				if (st.keys[curr] < k) {
+					result += st.size[st.left[curr]] + 1;
+					curr = st.right[curr];
+				}
+				else {
+					curr = st.left[curr];
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * public IntLongAVLTree[] split(int x)
+		 * <p>
+		 * splits the tree into 2 trees according to the key x.
+		 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2), the item with key x is removed.
+		 * the two trees share the store of this tree, which is left empty.
+		 * complexity O(log n)
+		 */
+		public IntLongAVLTree[] split(int x) {
+			IntLongStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean fromRight = false;
+			while (curr != NIL && st.keys[curr] != x) {
+				p = curr;
+				fromRight = x > st.keys[curr];
+				curr = fromRight ? st.right[curr] : st.left[curr];
+			}
+			splitAt(curr, p, fromRight);
+			IntLongAVLTree[] result = new IntLongAVLTree[2];
+			result[0] = new IntLongAVLTree(st, st.lower);
+			result[1] = new IntLongAVLTree(st, st.upper);
+			return result;
+		}
+
+		/**
+		 * public int join(int k, long i, IntLongAVLTree t)
+		 * <p>
+		 * joins t and a new item (k, i) with the tree, t is left empty.
+		 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+		 * precondition: keys(t) < k < keys() or keys(t) > k > keys().
+		 * a tree of another store is copied into the store of this tree first, in O(|t|).
+		 * complexity O(log n)
+		 */
+		public int join(int k, long i, IntLongAVLTree t) {
+			IntLongStore st = this.store;
+			int other = adopt(t);
+			int x = st.allocate();
+			st.keys[x] = k;
+			st.values[x] = i;
+			boolean otherIsLower = other != NIL ? st.keys[other] < k : this.root != NIL && st.keys[this.root] > k;
+			return joinSlots(other, x, otherIsLower);
+		}
+
+		/** searching the slot by the given key, NIL if it is not in the tree - complexity O(log n) **/
+		protected int find(int k) {
+			IntLongStore st = this.store;
+			int curr = this.root;
+			while (curr != NIL) {
+				int key = st.keys[curr];
+				if (key == k) return curr;
+				curr = k < key ? st.left[curr] : st.right[curr];
+			}
+			return NIL;
+		}
+	}
+
+	/**
+	 * public static class ComparatorAVLTree
+	 * <p>
+	 * AVL tree with distinct keys of any type K, ordered by a Comparator or,
+	 * when the comparator is null, by the natural order of Comparable keys.
+	 * every descent calls compare once per level. same contract as ArrayAVLTree otherwise;
+	 * join requires both trees to use the same order.
+	 */
+	public static class ComparatorAVLTree<K, V> extends SlotTree<ObjectStore> {
+		protected final Comparator<? super K> comparator;
+
+		/** creates an empty tree ordered by the natural order of the keys, which must be Comparable **/
+		public ComparatorAVLTree() {
+			this(null);
+		}
+
+		/** creates an empty tree ordered by comparator, or by the natural order if it is null **/
+		public ComparatorAVLTree(Comparator<? super K> comparator) {
+			this(new ObjectStore(17), NIL, comparator);
+		}
+
+		protected ComparatorAVLTree(ObjectStore store, int root, Comparator<? super K> comparator) {
+			super(store, root);
+			this.comparator = comparator;
+		}
+
+		/**
+		 * public V search(K k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		@SuppressWarnings("unchecked")
+		public V search(K k) {
+			int s = find(k);
+			if (s == NIL) return null;
+			return (V) this.store.values[s];
+		}
+
+		/**
+		 * public int insert(K k, V i)
+		 * <p>
+		 * inserts an item with key k and info i to the tree.
+		 * returns the number of re-balancing operations (promotions and rotations),
+		 * or -1 if an item with key k already exists in the tree.
+		 * complexity O(log n)
+		 */
+		public int insert(K k, V i) {
+			ObjectStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean left = false;
+			while (curr != NIL) {
+				int c = compare(k, st.keys[curr]);
+				if (c == 0) return -1;
+				p = curr;
+				left = c < 0;
+				curr = left ? st.left[curr] : st.right[curr];
+			}
+			int s = st.allocate();
+			st.keys[s] = k;
+			st.values[s] = i;
+			return attach(p, s, left);
+		}
+
+		/**
+		 * public int delete(K k)
+		 * <p>
+		 * deletes an item with key k from the tree, if it is there.
+		 * returns the number of re-balancing operations (demotions and rotations),
+		 * or -1 if an item with key k was not found in the tree.
+		 * complexity O(log n)
+		 */
+		public int delete(K k) {
+			int s = find(k);
+			if (s == NIL) return -1;
+			return detach(s);
+		}
+
+		/**
+		 * public V min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		@SuppressWarnings("unchecked")
+		public V min() {
+			if (empty()) return null;
+			return (V) this.store.values[this.min];
+		}
+
+		/**
+		 * public V max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		@SuppressWarnings("unchecked")
+		public V max() {
+			if (empty()) return null;
+			return (V) this.store.values[this.max];
+		}
+
+		/**
+		 * public Object[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys in the tree,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public Object[] keysToArray() {
+			Object[] result = new Object[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.keys[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public Object[] infoToArray()
+		 * <p>
+		 * Returns an array which contains all info in the tree,
+		 * sorted by their respective keys,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public Object[] infoToArray() {
+			Object[] result = new Object[size()];
+			int i = 0;
+			for (int s = this.min; i < result.length; s = this.store.successor(s)) {
+				result[i++] = this.store.values[s];
+			}
+			return result;
+		}
+
+		/**
+		 * public K select(int i)
+		 * <p>
+		 * Returns the i-th smallest key in the tree, counting from 0.
+		 * throws IndexOutOfBoundsException if i is not in [0, size()).
+		 * complexity O(log n)
+		 */
+		@SuppressWarnings("unchecked")
+		public K select(int i) {
+			return (K) this.store.keys[selectSlot(i)];
+		}
+
+		/**
+		 * public int rank(K k)
+		 * <p>
+		 * Returns the number of keys in the tree that are smaller than k.
+		 * complexity O(log n)
+		 */
+		public int rank(K k) {
+			ObjectStore st = this.store;
+			int result = 0;
+			int curr = this.root;
+			while (curr != NIL) {
+				if (compare(k, st.keys[curr]) > 0) {
+					result += st.size[st.left[curr]] + 1;
+					curr = st.right[curr];
+				}
+				else {
+					curr = st.left[curr];
+				}
+			}
+			return result;
+		}
+
+		/**
+		 * public ComparatorAVLTree<K, V>[] split(K x)
+		 * <p>
+		 * splits the tree into 2 trees according to the key x.
+		 * Returns an array [t1, t2] with two trees. keys(t1) < x < keys(t2), the item with key x is removed.
+		 * the two trees share the store of this tree, which is left empty.
+		 * complexity O(log n)
+		 */
+		public ComparatorAVLTree<K, V>[] split(K x) {
+			ObjectStore st = this.store;
+			int p = NIL;
+			int curr = this.root;
+			boolean fromRight = false;
+			while (curr != NIL) {
+				int c = compare(x, st.keys[curr]);
+				if (c == 0) break;
+				p = curr;
+				fromRight = c > 0;
+				curr = fromRight ? st.right[curr] : st.left[curr];
+			}
+			splitAt(curr, p, fromRight);
+			ComparatorAVLTree<K, V>[] result = newArray(2);
+			result[0] = new ComparatorAVLTree<>(st, st.lower, this.comparator);
+			result[1] = new ComparatorAVLTree<>(st, st.upper, this.comparator);
+			return result;
+		}
+
+		/**
+		 * public int join(K k, V i, ComparatorAVLTree<K, V> t)
+		 * <p>
+		 * joins t and a new item (k, i) with the tree, t is left empty.
+		 * Returns the complexity of the operation (|tree.rank - t.rank| + 1).
+		 * precondition: keys(t) < k < keys() or keys(t) > k > keys() in the order of this tree.
+		 * a tree of another store is copied into the store of this tree first, in O(|t|).
+		 * complexity O(log n)
+		 */
+		public int join(K k, V i, ComparatorAVLTree<K, V> t) {
+			ObjectStore st = this.store;
+			int other = adopt(t);
+			int x = st.allocate();
+			st.keys[x] = k;
+			st.values[x] = i;
+			boolean otherIsLower = other != NIL ? compare(k, st.keys[other]) > 0 : this.root != NIL && compare(k, st.keys[this.root]) < 0;
+			return joinSlots(other, x, otherIsLower);
+		}
+
+		/** a ComparatorAVLTree<K, V>[] of the given length, an array of a generic class can't be created directly - complexity O(n) **/
+		@SuppressWarnings("unchecked")
+		private static <K, V> ComparatorAVLTree<K, V>[] newArray(int length) {
+			return (ComparatorAVLTree<K, V>[]) new ComparatorAVLTree<?, ?>[length];
+		}
+
+		/** searching the slot by the given key, NIL if it is not in the tree - complexity O(log n) **/
+		protected int find(K k) {
+			ObjectStore st = this.store;
+			int curr = this.root;
+			while (curr != NIL) {
+				int c = compare(k, st.keys[curr]);
+				if (c == 0) return curr;
+				curr = c < 0 ? st.left[curr] : st.right[curr];
+			}
+			return NIL;
+		}
+
+		/** comparing the key k with a key of the store by the order of the tree - complexity O(1) **/
+		@SuppressWarnings("unchecked")
+		protected int compare(K k, Object key) {
+			if (this.comparator != null) return this.comparator.compare(k, (K) key);
+			return ((Comparable<? super K>) k).compareTo((K) key);
+		}
+	}
+
+	/**
+	 * public static class ConcurrentAVLTree
+	 * <p>
+	 * thread safe AVL tree. readers don't lock and don't write any shared memory:
+	 * they take a version (the stamp of a StampedLock), walk the tree optimistically and
+	 * validate the version at the end, like the version validated traversal of Bronson et al.
+	 * a reader only falls back to the read lock if a writer changed the tree during the walk.
+	 * writes are fully serialized by one global write lock: insert and delete hold it for the update and
+	 * its re-balancing, so only one writer runs at a time (PartitionedAVLTree runs writers in parallel).
+	 * the tree uses the shared external node, so a reader never meets a node it can't walk through.
+	 */
+	public static class ConcurrentAVLTree {
+		// the height of an AVL tree of int keys is at most 1.44 log(n + 2) < 47,
+		// a longer walk means the reader went through a rotation in progress
+		private static final int MAX_WALK = 64;
+
+		protected final AVLTree tree;
+		protected final StampedLock lock;
+
+		public ConcurrentAVLTree() {
+			this.tree = new AVLTree(true);
+			this.lock = new StampedLock();
+		}
+
+		/**
+		 * public String search(int k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n), lock free unless a writer interferes
+		 */
+		public String search(int k) {
+			long stamp = this.lock.tryOptimisticRead();
+			if (stamp != 0) {
+				IAVLNode curr = this.tree.root;
+				String result = null;
+				int steps = 0;
+				// the fields may be in the middle of a change, any value read here is checked by validate
+				while (curr != null && curr.isRealNode() && steps++ < MAX_WALK) {
+					int key = curr.getKey();
+					if (key == k) {
+						result = curr.getValue();
+						break;
+					}
+					curr = k > key ? curr.getRight() : curr.getLeft();
+				}
+				if (curr != null && steps <= MAX_WALK && this.lock.validate(stamp)) return result;
+			}
+			stamp = this.lock.readLock();
+			try {
+				return this.tree.search(k);
+			}
+			finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public int insert(int k, String i)
+		 * <p>
+		 * inserts an item with key k and info i, see AVLTree.insert
+		 * complexity O(log n)
+		 */
+		public int insert(int k, String i) {
+			long stamp = this.lock.writeLock();
+			try {
+				return this.tree.insert(k, i);
+			}
+			finally {
+				this.lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * public int delete(int k)
+		 * <p>
+		 * deletes the item with key k, see AVLTree.delete
+		 * complexity O(log n)
+		 */
+		public int delete(int k) {
+			long stamp = this.lock.writeLock();
+			try {
+				return this.tree.delete(k);
+			}
+			finally {
+				this.lock.unlockWrite(stamp);
+			}
+		}
+
+		/**
+		 * public String min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree, or null if the tree is empty
+		 * complexity O(1), lock free unless a writer interferes
+		 */
+		public String min() {
+			long stamp = this.lock.tryOptimisticRead();
+			if (stamp != 0) {
+				boolean empty = this.tree.empty();
+				IAVLNode node = this.tree.min;
+				String result = empty || node == null ? null : node.getValue();
+				if (this.lock.validate(stamp)) return result;
+			}
+			stamp = this.lock.readLock();
+			try {
+				return this.tree.min();
+			}
+			finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public String max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree, or null if the tree is empty
+		 * complexity O(1), lock free unless a writer interferes
+		 */
+		public String max() {
+			long stamp = this.lock.tryOptimisticRead();
+			if (stamp != 0) {
+				boolean empty = this.tree.empty();
+				IAVLNode node = this.tree.max;
+				String result = empty || node == null ? null : node.getValue();
+				if (this.lock.validate(stamp)) return result;
+			}
+			stamp = this.lock.readLock();
+			try {
+				return this.tree.max();
+			}
+			finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of items in the tree
+		 * complexity O(1), lock free unless a writer interferes
+		 */
+		public int size() {
+			long stamp = this.lock.tryOptimisticRead();
+			int size = this.tree.size;
+			if (this.lock.validate(stamp)) return size;
+			stamp = this.lock.readLock();
+			try {
+				return this.tree.size;
+			}
+			finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(1)
+		 */
+		public boolean empty() {
+			return size() == 0;
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array of all the keys, taken under the read lock
+		 * complexity O(n)
+		 */
+		public int[] keysToArray() {
+			long stamp = this.lock.readLock();
+			try {
+				return this.tree.keysToArray();
+			}
+			finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public String[] infoToArray()
+		 * <p>
+		 * Returns all the info sorted by their keys, taken under the read lock
+		 * complexity O(n)
+		 */
+		public String[] infoToArray() {
+			long stamp = this.lock.readLock();
+			try {
+				return this.tree.infoToArray();
+			}
+			finally {
+				this.lock.unlockRead(stamp);
+			}
+		}
+	}
+
+	/**
+	 * public static class PartitionedAVLTree
+	 * <p>
+	 * thread safe AVL tree with distinct integer keys and info, range partitioned into K shards.
+	 * every shard is an AVLTree of the keys in [lower[s], lower[s + 1]) with its own lock, so writers
+	 * of different shards run in parallel and the AVL algorithm itself stays the sequential one.
+	 * a shard that grows to more than SKEW times the average size hands half the difference to its
+	 * smaller neighbor with one split and one join, O(log n), and moves the bound between them.
+	 * the layout (the shards and their bounds) is guarded by a StampedLock, and the bounds and the tree of a shard
+	 * change only under both the write lock of the layout and the write lock of the shard. an operation on one key
+	 * routes it under an optimistic read of the layout, locks the shard and validates the read: once it holds the
+	 * lock of its shard, the range of the shard can't move, so the shared layout lock is only read, not written,
+	 * on the way of every operation. if the layout changed, the key is routed again under the read lock of the layout.
+	 * size, min, max, keysToArray and select hold the read lock of the layout and the read locks of all the shards,
+	 * in order, and see one consistent state of the whole tree.
+	 */
+	public static class PartitionedAVLTree {
+		// a shard is re-balanced when it holds more than SKEW times the average and at least MIN_REBALANCE items
+		private static final int SKEW = 2;
+		private static final int MIN_REBALANCE = 1024;
+		// the number of writes to a shard between two checks of its skew
+		private static final int CHECK_INTERVAL = 1024;
+
+		private final Shard[] shards;
+		private final int[] lower; // the smallest key of every shard, lower[0] is Integer.MIN_VALUE
+		private final StampedLock layout;
+
+		/** a shard of the tree, the tree is replaced by the re-balancing under the write locks of the layout and the shard **/
+		private static final class Shard {
+			private AVLTree tree;
+			private final StampedLock lock;
+			private int writes; // the writes since the last skew check, guarded by the lock of the shard
+
+			private Shard() {
+				this.tree = new AVLTree(true);
+				this.lock = new StampedLock();
+			}
+		}
+
+		public PartitionedAVLTree() {
+			this(Runtime.getRuntime().availableProcessors() * 4);
+		}
+
+		/**
+		 * public PartitionedAVLTree(int shards)
+		 * <p>
+		 * creates an empty tree of the given number of shards, splitting the int keys into ranges of equal width.
+		 * the ranges follow the keys that are actually inserted through the re-balancing of the shards.
+		 * complexity O(K)
+		 */
+		public PartitionedAVLTree(int shards) {
+			if (shards < 1) throw new IllegalArgumentException("shards " + shards);
+			this.shards = new Shard[shards];
+			this.lower = new int[shards];
+			long width = (1L << 32) / shards;
+			for (int s = 0; s < shards; s++) {
+				this.shards[s] = new Shard();
+				this.lower[s] = (int) (Integer.MIN_VALUE + s * width);
+			}
+			this.layout = new StampedLock();
+		}
+
+		/**
+		 * public String search(int k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		public String search(int k) {
+			long stamp = this.layout.tryOptimisticRead();
+			Shard shard = this.shards[route(k)];
+			long shardStamp = shard.lock.readLock();
+			if (!this.layout.validate(stamp)) {
+				// the layout changed while k was routed, k is routed again under the read lock of the layout
+				shard.lock.unlockRead(shardStamp);
+				stamp = this.layout.readLock();
+				try {
+					shard = this.shards[route(k)];
+					shardStamp = shard.lock.readLock();
+				}
+				finally {
+					this.layout.unlockRead(stamp);
+				}
+			}
+			try {
+				return shard.tree.search(k);
+			}
+			finally {
+				shard.lock.unlockRead(shardStamp);
+			}
+		}
+
+		/**
+		 * public int insert(int k, String i)
+		 * <p>
+		 * inserts an item with key k and info i into its shard, see AVLTree.insert
+		 * complexity O(log n)
+		 */
+		public int insert(int k, String i) {
+			int result;
+			boolean check;
+			long stamp = this.layout.tryOptimisticRead();
+			int s = route(k);
+			Shard shard = this.shards[s];
+			long shardStamp = shard.lock.writeLock();
+			if (!this.layout.validate(stamp)) {
+				// the layout changed while k was routed, k is routed again under the read lock of the layout
+				shard.lock.unlockWrite(shardStamp);
+				stamp = this.layout.readLock();
+				try {
+					s = route(k);
+					shard = this.shards[s];
+					shardStamp = shard.lock.writeLock();
+				}
+				finally {
+					this.layout.unlockRead(stamp);
+				}
+			}
+			try {
+				result = shard.tree.insert(k, i);
+				check = result != -1 && ++shard.writes % CHECK_INTERVAL == 0;
+			}
+			finally {
+				shard.lock.unlockWrite(shardStamp);
+			}
+			if (check) rebalance(s);
+			return result;
+		}
+
+		/**
+		 * public int delete(int k)
+		 * <p>
+		 * deletes the item with key k from its shard, see AVLTree.delete
+		 * complexity O(log n)
+		 */
+		public int delete(int k) {
+			long stamp = this.layout.tryOptimisticRead();
+			Shard shard = this.shards[route(k)];
+			long shardStamp = shard.lock.writeLock();
+			if (!this.layout.validate(stamp)) {
+				// the layout changed while k was routed, k is routed again under the read lock of the layout
+				shard.lock.unlockWrite(shardStamp);
+				stamp = this.layout.readLock();
+				try {
+					shard = this.shards[route(k)];
+					shardStamp = shard.lock.writeLock();
+				}
+				finally {
+					this.layout.unlockRead(stamp);
+				}
+			}
+			try {
+				return shard.tree.delete(k);
+			}
+			finally {
+				shard.lock.unlockWrite(shardStamp);
+			}
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of items in the tree, the sum of the sizes of the shards
+		 * complexity O(K)
+		 */
+		public int size() {
+			long stamp = this.layout.readLock();
+			long[] stamps = lockShards();
+			try {
+				return total();
+			}
+			finally {
+				unlockShards(stamps);
+				this.layout.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(K)
+		 */
+		public boolean empty() {
+			return size() == 0;
+		}
+
+		/**
+		 * public String min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree, the min of the first shard
+		 * that is not empty, or null if the tree is empty
+		 * complexity O(K)
+		 */
+		public String min() {
+			long stamp = this.layout.readLock();
+			long[] stamps = lockShards();
+			try {
+				for (Shard shard : this.shards) {
+					if (!shard.tree.empty()) return shard.tree.min();
+				}
+				return null;
+			}
+			finally {
+				unlockShards(stamps);
+				this.layout.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public String max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree, the max of the last shard
+		 * that is not empty, or null if the tree is empty
+		 * complexity O(K)
+		 */
+		public String max() {
+			long stamp = this.layout.readLock();
+			long[] stamps = lockShards();
+			try {
+				for (int s = this.shards.length - 1; s >= 0; s--) {
+					if (!this.shards[s].tree.empty()) return this.shards[s].tree.max();
+				}
+				return null;
+			}
+			finally {
+				unlockShards(stamps);
+				this.layout.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array of all the keys, the keys of the shards one after the other
+		 * complexity O(n + K)
+		 */
+		public int[] keysToArray() {
+			long stamp = this.layout.readLock();
+			long[] stamps = lockShards();
+			try {
+				int[] result = new int[total()];
+				int offset = 0;
+				for (Shard shard : this.shards) {
+					int[] keys = shard.tree.keysToArray();
+					System.arraycopy(keys, 0, result, offset, keys.length);
+					offset += keys.length;
+				}
+				return result;
+			}
+			finally {
+				unlockShards(stamps);
+				this.layout.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public int select(int i)
+		 * <p>
+		 * Returns the key at index i of the sorted keys (keysToArray()[i]): the shard that holds the index
+		 * is found from the sizes of the shards, and the key is selected in its tree.
+		 * throws IndexOutOfBoundsException unless 0 <= i < size().
+		 * complexity O(K + log n)
+		 */
+		public int select(int i) {
+			long stamp = this.layout.readLock();
+			long[] stamps = lockShards();
+			try {
+				if (i >= 0) {
+					int index = i;
+					for (Shard shard : this.shards) {
+						int size = shard.tree.size();
+						if (index < size) return shard.tree.select(index);
+						index -= size;
+					}
+				}
+				throw new IndexOutOfBoundsException("index " + i + ", size " + total());
+			}
+			finally {
+				unlockShards(stamps);
+				this.layout.unlockRead(stamp);
+			}
+		}
+
+		/**
+		 * public int[] shardSizes()
+		 * <p>
+		 * Returns the number of items in every shard, in the order of their key ranges
+		 * complexity O(K)
+		 */
+		public int[] shardSizes() {
+			long stamp = this.layout.readLock();
+			long[] stamps = lockShards();
+			try {
+				int[] result = new int[this.shards.length];
+				for (int s = 0; s < result.length; s++) result[s] = this.shards[s].tree.size();
+				return result;
+			}
+			finally {
+				unlockShards(stamps);
+				this.layout.unlockRead(stamp);
+			}
+		}
+
+		/** the index of the shard whose range holds k, a binary search of the bounds, which may be read optimistically - complexity O(log K) **/
+		private int route(int k) {
+			int lo = 0;
+			int hi = this.lower.length - 1;
+			while (lo < hi) {
+				int mid = (lo + hi + 1) >>> 1;
+				if (this.lower[mid] <= k) lo = mid;
+				else hi = mid - 1;
+			}
+			return lo;
+		}
+
+		/** taking the read locks of all the shards in order, under the read lock of the layout - complexity O(K) **/
+		private long[] lockShards() {
+			long[] stamps = new long[this.shards.length];
+			for (int s = 0; s < stamps.length; s++) stamps[s] = this.shards[s].lock.readLock();
+			return stamps;
+		}
+
+		/** releasing the read locks taken by lockShards - complexity O(K) **/
+		private void unlockShards(long[] stamps) {
+			for (int s = 0; s < stamps.length; s++) this.shards[s].lock.unlockRead(stamps[s]);
+		}
+
+		/** the number of items in all the shards, the shards must be locked - complexity O(K) **/
+		private int total() {
+			int total = 0;
+			for (Shard shard : this.shards) total += shard.tree.size();
+			return total;
+		}
+
+		/** whether a shard of the given size is skewed in a tree of the given total size - complexity O(1) **/
+		private boolean skewed(int size, int total) {
+			return size >= MIN_REBALANCE && (long) size * this.shards.length > (long) SKEW * total;
+		}
+
+		/**
+		 * re-balancing shard s if it is skewed, under the write lock of the layout: the shard hands half the
+		 * difference to its smaller neighbor, which then hands on to its own smaller neighbor if it became skewed,
+		 * so the items of a hot range spread over the shards. the writers of the other shards go on meanwhile,
+		 * so the sizes that choose the moves are read without the locks of the shards, and every move takes the
+		 * write locks of its two shards, the lower first, and sizes itself under them - complexity O(K log n)
+		 */
+		private void rebalance(int s) {
+			long stamp = this.layout.writeLock();
+			try {
+				int total = total();
+				for (int steps = 0; steps < this.shards.length && skewed(this.shards[s].tree.size(), total); steps++) {
+					int size = this.shards[s].tree.size();
+					int left = s > 0 ? this.shards[s - 1].tree.size() : Integer.MAX_VALUE;
+					int right = s + 1 < this.shards.length ? this.shards[s + 1].tree.size() : Integer.MAX_VALUE;
+					if (Math.min(left, right) >= size) return;
+					int low = right <= left ? s : s - 1;
+					Shard lower = this.shards[low];
+					Shard upper = this.shards[low + 1];
+					long lowerStamp = lower.lock.writeLock();
+					long upperStamp = upper.lock.writeLock();
+					try {
+						if (low == s) moveUpper(s, (lower.tree.size() - upper.tree.size()) / 2);
+						else moveLower(s, (upper.tree.size() - lower.tree.size()) / 2);
+					}
+					finally {
+						upper.lock.unlockWrite(upperStamp);
+						lower.lock.unlockWrite(lowerStamp);
+					}
+					s = low == s ? s + 1 : s - 1;
+				}
+			}
+			finally {
+				this.layout.unlockWrite(stamp);
+			}
+		}
+
+		/** moving the m largest items of shard s to shard s + 1 with a split and a join, both shards are write locked - complexity O(log n) **/
+		private void moveUpper(int s, int m) {
+			if (m < 1) return;
+			AVLTree from = this.shards[s].tree;
+			int x = from.select(from.size() - m);
+			String info = from.search(x);
+			AVLTree[] parts = from.split(x);
+			AVLTree upper = concat(parts[1], this.shards[s + 1].tree);
+			upper.insert(x, info);
+			this.shards[s].tree = parts[0];
+			this.shards[s + 1].tree = upper;
+			this.lower[s + 1] = x;
+		}
+
+		/** moving the m smallest items of shard s to shard s - 1 with a split and a join, both shards are write locked - complexity O(log n) **/
+		private void moveLower(int s, int m) {
+			if (m < 1) return;
+			AVLTree from = this.shards[s].tree;
+			int x = from.select(m - 1);
+			String info = from.search(x);
+			AVLTree[] parts = from.split(x);
+			AVLTree lower = concat(this.shards[s - 1].tree, parts[0]);
+			lower.insert(x, info);
+			this.shards[s - 1].tree = lower;
+			this.shards[s].tree = parts[1];
+			// x is smaller than the largest key of the shard, so x + 1 doesn't overflow
+			this.lower[s] = x + 1;
+		}
+
+		/**
+		 * joining two trees with keys(lower) < keys(upper) into lower. join needs a node between the trees,
+		 * the smallest item of upper is taken out of it for that - complexity O(log n)
+		 */
+		private static AVLTree concat(AVLTree lower, AVLTree upper) {
+			if (upper.empty()) return lower;
+			int y = upper.select(0);
+			String info = upper.min();
+			upper.delete(y);
+			lower.join(lower.new AVLNode(y, info), upper);
+			return lower;
+		}
+	}
+
+	/**
+	 * public static class IntervalTree
+	 * <p>
+	 * a set of closed integer intervals [lo, hi] with info, answering stabbing and overlap queries.
+	 * the intervals are kept in an AVLTree keyed by their start, with the MAX monoid. the node of a start is an
+	 * IntervalNode that holds the intervals of the start, sorted by their end from the largest, and whose lifted
+	 * value is the largest of those ends, so the aggregate of a subtree is the largest end in it, maintained by
+	 * the rotations of the tree. no map of the starts and no encoding of the ends as info is needed.
+	 * a query skips every subtree whose largest end is before the query and every subtree of starts after it.
+	 */
+	public static class IntervalTree {
+		protected final AVLTree tree; // a StartTree
+		private int size;
+
+		/**
+		 * public interface IntervalConsumer
+		 * <p>
+		 * receives the intervals of a query
+		 */
+		public interface IntervalConsumer {
+			void accept(int lo, int hi, String i);
+		}
+
+		/**
+		 * protected static class StartTree
+		 * <p>
+		 * the AVLTree of the starts, whose nodes are IntervalNodes
+		 */
+		protected static final class StartTree extends AVLTree {
+			private StartTree() {
+				super(true, Monoid.MAX);
+			}
+
+			protected AVLNode createNode(int k, String i) {
+				return new IntervalNode(k);
+			}
+
+			/** the node of a start with its intervals, sorted by their end from the largest **/
+			protected final class IntervalNode extends AggregateNode {
+				private int[] ends = new int[1];
+				private String[] infos = new String[1];
+				private int count;
+
+				private IntervalNode(int k) {
+					super(k, null);
+				}
+			}
+		}
+
+		public IntervalTree() {
+			this.tree = new StartTree();
+		}
+
+		/**
+		 * public boolean insert(int lo, int hi, String i)
+		 * <p>
+		 * inserts the interval [lo, hi] with info i. returns false, and changes nothing,
+		 * if the interval is already in the tree. throws IllegalArgumentException if lo > hi.
+		 * complexity O(log n + the intervals of start lo)
+		 */
+		public boolean insert(int lo, int hi, String i) {
+			if (lo > hi) throw new IllegalArgumentException("lo " + lo + " > hi " + hi);
+			AVLNode parent = this.tree.descend(lo);
+			StartTree.IntervalNode node;
+			if (parent != null && parent.key == lo) node = (StartTree.IntervalNode) parent;
+			else {
+				// the new node becomes the finger of the tree
+				if (parent == null) this.tree.insertRoot(lo, null);
+				else this.tree.insertUnder(parent, lo, null);
+				node = (StartTree.IntervalNode) this.tree.finger;
+			}
+			int index = 0;
+			while (index < node.count && node.ends[index] > hi) index++;
+			if (index < node.count && node.ends[index] == hi) return false;
+			if (node.count == node.ends.length) {
+				node.ends = Arrays.copyOf(node.ends, node.count * 2);
+				node.infos = Arrays.copyOf(node.infos, node.count * 2);
+			}
+			System.arraycopy(node.ends, index, node.ends, index + 1, node.count - index);
+			System.arraycopy(node.infos, index, node.infos, index + 1, node.count - index);
+			node.ends[index] = hi;
+			node.infos[index] = i;
+			node.count++;
+			if (index == 0) updateEnd(node);
+			this.size++;
+			return true;
+		}
+
+		/**
+		 * public boolean delete(int lo, int hi)
+		 * <p>
+		 * deletes the interval [lo, hi], returns false if it is not in the tree.
+		 * complexity O(log n + the intervals of start lo)
+		 */
+		public boolean delete(int lo, int hi) {
+			StartTree.IntervalNode node = find(lo);
+			if (node == null) return false;
+			int index = 0;
+			while (index < node.count && node.ends[index] > hi) index++;
+			if (index == node.count || node.ends[index] != hi) return false;
+			node.count--;
+			System.arraycopy(node.ends, index + 1, node.ends, index, node.count - index);
+			System.arraycopy(node.infos, index + 1, node.infos, index, node.count - index);
+			node.infos[node.count] = null;
+			if (node.count == 0) this.tree.delete(lo);
+			else if (index == 0) updateEnd(node);
+			this.size--;
+			return true;
+		}
+
+		/**
+		 * public String search(int lo, int hi)
+		 * <p>
+		 * returns the info of the interval [lo, hi] if it is in the tree, otherwise null
+		 * complexity O(log n + the intervals of start lo)
+		 */
+		public String search(int lo, int hi) {
+			StartTree.IntervalNode node = find(lo);
+			if (node == null) return null;
+			for (int index = 0; index < node.count && node.ends[index] >= hi; index++) {
+				if (node.ends[index] == hi) return node.infos[index];
+			}
+			return null;
+		}
+
+		/**
+		 * public int overlapping(int a, int b, IntervalConsumer consumer)
+		 * <p>
+		 * passes the intervals [lo, hi] that overlap [a, b] (lo <= b and hi >= a) to the consumer, by their start.
+		 * returns the number of intervals passed.
+		 * complexity O((1 + s) log n + k) for k intervals passed, of s distinct starts
+		 */
+		public int overlapping(int a, int b, IntervalConsumer consumer) {
+			if (a > b) return 0;
+			return overlapping(realNode(this.tree.root), a, b, consumer);
+		}
+
+		/**
+		 * public int stab(int x, IntervalConsumer consumer)
+		 * <p>
+		 * passes the intervals that contain x to the consumer, by their start.
+		 * returns the number of intervals passed.
+		 * complexity as overlapping(x, x, consumer)
+		 */
+		public int stab(int x, IntervalConsumer consumer) {
+			return overlapping(x, x, consumer);
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of intervals in the tree
+		 * complexity O(1)
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(1)
+		 */
+		public boolean empty() {
+			return this.size == 0;
+		}
+
+		/** the intervals of the subtree of node that overlap [a, b], in start order - complexity O(log n) per reported start **/
+		private int overlapping(AVLNode node, int a, int b, IntervalConsumer consumer) {
+			int counter = 0;
+			// the right spine is a loop, only the left subtrees recurse, so the depth is at most the height
+			while (node != null && ((AggregateNode) node).aggregate >= a) {
+				counter += overlapping(realNode(node.left), a, b, consumer);
+				if (node.key > b) break;
+				StartTree.IntervalNode intervals = (StartTree.IntervalNode) node;
+				for (int index = 0; index < intervals.count && intervals.ends[index] >= a; index++) {
+					consumer.accept(node.key, intervals.ends[index], intervals.infos[index]);
+					counter++;
+				}
+				node = realNode(node.right);
+			}
+			return counter;
+		}
+
+		/** the node of start lo, or null if no interval starts at lo - complexity O(log n) **/
+		private StartTree.IntervalNode find(int lo) {
+			AVLNode node = this.tree.descend(lo);
+			return node == null || node.key != lo ? null : (StartTree.IntervalNode) node;
+		}
+
+		/** setting the largest end of the node as its lifted value, and the aggregates of its ancestors - complexity O(log n) **/
+		private void updateEnd(StartTree.IntervalNode node) {
+			((AggregateNode) node).lifted = node.ends[0];
+			this.tree.refreshAggregates(node);
+		}
+	}
+
+	/**
+	 * public static class PersistentAVLTree
+	 * <p>
+	 * persistent AVL tree with distinct integer keys and info. the nodes are immutable and have no
+	 * parent pointers, so insert and delete copy only the O(log n) nodes on the path they change
+	 * (and the nodes of their rotations) and share the rest with the previous version.
+	 * the current version (root, min, max) is published through a volatile field:
+	 * snapshot() is O(1) and returns an independent tree that keeps the version it was taken at,
+	 * readers never lock and always see one consistent version, writers are serialized on the tree.
+	 */
+	public static class PersistentAVLTree {
+		private volatile Version version;
+		private int ops; // re-balancing operations counted by the running update, guarded by the tree
+
+		public PersistentAVLTree() {
+			this.version = Version.EMPTY;
+		}
+
+		/** creates a persistent tree with the items of t, which is not changed - complexity O(n) **/
+		public PersistentAVLTree(AVLTree t) {
+			this(t.keysToArray(), t.infoToArray());
+		}
+
+		/** creates a persistent tree from keys sorted in ascending order and their info - complexity O(n) **/
+		public PersistentAVLTree(int[] keys, String[] values) {
+			this.version = Version.of(build(keys, values, 0, keys.length));
+		}
+
+		private PersistentAVLTree(Version version) {
+			this.version = version;
+		}
+
+		/**
+		 * public PersistentAVLTree snapshot()
+		 * <p>
+		 * Returns a tree with the items of the tree at this moment. later updates of either
+		 * tree don't change the other, the two trees share all the nodes they have in common.
+		 * complexity O(1)
+		 */
+		public PersistentAVLTree snapshot() {
+			return new PersistentAVLTree(this.version);
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(1)
+		 */
+		public boolean empty() {
+			return this.version.root == null;
+		}
+
+		/**
+		 * public String search(int k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		public String search(int k) {
+			PNode curr = this.version.root;
+			while (curr != null) {
+				if (k == curr.key) return curr.value;
+				curr = k < curr.key ? curr.left : curr.right;
+			}
+			return null;
+		}
+
+		/**
+		 * public int insert(int k, String i)
+		 * <p>
+		 * inserts an item with key k and info i to the tree, in a new version of the tree.
+		 * returns the number of re-balancing operations (promotions and rotations),
+		 * or -1 if an item with key k already exists in the tree.
+		 * complexity O(log n), allocates O(log n) nodes
+		 */
+		public synchronized int insert(int k, String i) {
+			Version old = this.version;
+			this.ops = 0;
+			PNode root = insert(old.root, k, i);
+			if (root == old.root) return -1;
+			PNode min = old.min == null || k < old.min.key ? first(root) : old.min;
+			PNode max = old.max == null || k > old.max.key ? last(root) : old.max;
+			this.version = new Version(root, min, max);
+			return this.ops;
+		}
+
+		/**
+		 * public int delete(int k)
+		 * <p>
+		 * deletes an item with key k from the tree if it is there, in a new version of the tree.
+		 * returns the number of re-balancing operations (demotions and rotations),
+		 * or -1 if an item with key k was not found in the tree.
+		 * complexity O(log n), allocates O(log n) nodes
+		 */
+		public synchronized int delete(int k) {
+			Version old = this.version;
+			this.ops = 0;
+			PNode root = delete(old.root, k);
+			if (root == old.root) return -1;
+			PNode min = k == old.min.key ? first(root) : old.min;
+			PNode max = k == old.max.key ? last(root) : old.max;
+			this.version = new Version(root, min, max);
+			return this.ops;
+		}
+
+		/**
+		 * public String min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String min() {
+			PNode min = this.version.min;
+			return min == null ? null : min.value;
+		}
+
+		/**
+		 * public String max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String max() {
+			PNode max = this.version.max;
+			return max == null ? null : max.value;
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of items in the tree.
+		 * complexity O(1)
+		 */
+		public int size() {
+			return size(this.version.root);
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys of one version of the tree,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public int[] keysToArray() {
+			PNode root = this.version.root;
+			int[] result = new int[size(root)];
+			int i = 0;
+			PNode[] stack = new PNode[rank(root) + 1];
+			int top = 0;
+			PNode curr = root;
+			while (curr != null || top > 0) {
+				while (curr != null) {
+					stack[top++] = curr;
+					curr = curr.left;
+				}
+				curr = stack[--top];
+				result[i++] = curr.key;
+				curr = curr.right;
+			}
+			return result;
+		}
+
+		/**
+		 * public String[] infoToArray()
+		 * <p>
+		 * Returns an array which contains all info of one version of the tree,
+		 * sorted by their respective keys,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public String[] infoToArray() {
+			PNode root = this.version.root;
+			String[] result = new String[size(root)];
+			int i = 0;
+			PNode[] stack = new PNode[rank(root) + 1];
+			int top = 0;
+			PNode curr = root;
+			while (curr != null || top > 0) {
+				while (curr != null) {
+					stack[top++] = curr;
+					curr = curr.left;
+				}
+				curr = stack[--top];
+				result[i++] = curr.value;
+				curr = curr.right;
+			}
+			return result;
+		}
+
+		/**
+		 * public int select(int i)
+		 * <p>
+		 * Returns the i-th smallest key in the tree, counting from 0.
+		 * throws IndexOutOfBoundsException if i is not in [0, size()).
+		 * complexity O(log n)
+		 */
+		public int select(int i) {
+			PNode curr = this.version.root;
+			if (i < 0 || i >= size(curr)) throw new IndexOutOfBoundsException("index " + i + ", size " + size(curr));
+			while (true) {
+				int leftSize = size(curr.left);
+				if (i == leftSize) return curr.key;
+				if (i < leftSize) {
+					curr = curr.left;
+				}
+				else {
+					i -= leftSize + 1;
+					curr = curr.right;
+				}
+			}
+		}
+
+		/**
+		 * public int rank(int k)
+		 * <p>
+		 * Returns the number of keys in the tree that are smaller than k.
+		 * complexity O(log n)
+		 */
+		public int rank(int k) {
+			int result = 0;
+			PNode curr = this.version.root;
+			while (curr != null) {
+				if (curr.key < k) {
+					result += size(curr.left) + 1;
+					curr = curr.right;
+				}
+				else {
+					curr = curr.left;
+				}
+			}
+			return result;
+		}
+
+		/** inserting (k, i) under n, returns the copied root of the subtree or n itself if k is there - complexity O(log n) **/
+		private PNode insert(PNode n, int k, String i) {
+			if (n == null) return new PNode(k, i, null, null);
+			if (k == n.key) return n;
+			if (k < n.key) {
+				PNode l = insert(n.left, k, i);
+				if (l == n.left) return n;
+				return balance(n, l, n.right);
+			}
+			PNode r = insert(n.right, k, i);
+			if (r == n.right) return n;
+			return balance(n, n.left, r);
+		}
+
+		/** deleting k under n, returns the copied root of the subtree or n itself if k isn't there - complexity O(log n) **/
+		private PNode delete(PNode n, int k) {
+			if (n == null) return null;
+			if (k < n.key) {
+				PNode l = delete(n.left, k);
+				if (l == n.left) return n;
+				return balance(n, l, n.right);
+			}
+			if (k > n.key) {
+				PNode r = delete(n.right, k);
+				if (r == n.right) return n;
+				return balance(n, n.left, r);
+			}
+			if (n.left == null) return n.right;
+			if (n.right == null) return n.left;
+			// binary node - its successor takes its place
+			return balance(first(n.right), n.left, deleteMin(n.right));
+		}
+
+		/** deleting the smallest key under n, returns the copied root of the subtree - complexity O(log n) **/
+		private PNode deleteMin(PNode n) {
+			if (n.left == null) return n.right;
+			return balance(n, deleteMin(n.left), n.right);
+		}
+
+		/** a copy of the item of n with the children l and r, rotated if they aren't balanced - complexity O(1) **/
+		private PNode balance(PNode n, PNode l, PNode r) {
+			int diff = rank(l) - rank(r);
+			if (diff > 1) {
+				if (rank(l.left) < rank(l.right)) {
+					PNode lr = l.right;
+					this.ops += 2;
+					return new PNode(lr.key, lr.value, new PNode(l.key, l.value, l.left, lr.left), new PNode(n.key, n.value, lr.right, r));
+				}
+				this.ops++;
+				return new PNode(l.key, l.value, l.left, new PNode(n.key, n.value, l.right, r));
+			}
+			if (diff < -1) {
+				if (rank(r.right) < rank(r.left)) {
+					PNode rl = r.left;
+					this.ops += 2;
+					return new PNode(rl.key, rl.value, new PNode(n.key, n.value, l, rl.left), new PNode(r.key, r.value, rl.right, r.right));
+				}
+				this.ops++;
+				return new PNode(r.key, r.value, new PNode(n.key, n.value, l, r.left), r.right);
+			}
+			PNode result = new PNode(n.key, n.value, l, r);
+			if (result.rank != n.rank) this.ops++; // promotion or demotion
+			return result;
+		}
+
+		/** building a balanced tree from sorted keys in [lo, hi) - complexity O(n) **/
+		private static PNode build(int[] keys, String[] values, int lo, int hi) {
+			if (lo >= hi) return null;
+			int mid = (lo + hi) >>> 1;
+			return new PNode(keys[mid], values[mid], build(keys, values, lo, mid), build(keys, values, mid + 1, hi));
+		}
+
+		private static PNode first(PNode n) {
+			if (n == null) return null;
+			while (n.left != null) n = n.left;
+			return n;
+		}
+
+		private static PNode last(PNode n) {
+			if (n == null) return null;
+			while (n.right != null) n = n.right;
+			return n;
+		}
+
+		private static int rank(PNode n) {
+			return n == null ? -1 : n.rank;
+		}
+
+		private static int size(PNode n) {
+			return n == null ? 0 : n.size;
+		}
+
+		/**
+		 * private static class PNode
+		 * <p>
+		 * immutable node of a persistent tree, null is the virtual node
+		 */
+		private static final class PNode {
+			private final int key;
+			private final String value;
+			private final PNode left;
+			private final PNode right;
+			private final int rank;
+			private final int size;
+
+			private PNode(int key, String value, PNode left, PNode right) {
+				this.key = key;
+				this.value = value;
+				this.left = left;
+				this.right = right;
+				this.rank = Math.max(rank(left), rank(right)) + 1;
+				this.size = size(left) + size(right) + 1;
+			}
+		}
+
+		/**
+		 * private static class Version
+		 * <p>
+		 * one version of a persistent tree - the root and its min and max nodes, published together
+		 */
+		private static final class Version {
+			private static final Version EMPTY = new Version(null, null, null);
+
+			private final PNode root;
+			private final PNode min;
+			private final PNode max;
+
+			private Version(PNode root, PNode min, PNode max) {
+				this.root = root;
+				this.min = min;
+				this.max = max;
+			}
+
+			private static Version of(PNode root) {
+				return new Version(root, first(root), last(root));
+			}
+		}
+	}
+
+	/**
+	 * public static class WriteAheadLog
+	 * <p>
+	 * append only binary log of the changes of a tree, with group commit.
+	 * a record is [int length][int crc32 of the payload][payload], the payload starts with the operation:
+	 * INSERT key info, DELETE key, SPLIT key, JOIN key info count (key info)*, CHECKPOINT snapshot.
+	 * an info is [int length of the UTF-8 bytes, -1 for null][bytes].
+	 * append only encodes the record into a memory buffer, a background thread writes the buffer
+	 * and forces it to the disk once syncRecords records are waiting, syncMillis passed since the
+	 * first of them or a caller of sync() waits - so many appends share one write and one fsync.
+	 * a record that was torn by a crash fails its length or crc check and ends the log on recovery.
+	 */
+	public static class WriteAheadLog implements Closeable {
+		protected static final byte INSERT = 1;
+		protected static final byte DELETE = 2;
+		protected static final byte SPLIT = 3;
+		protected static final byte JOIN = 4;
+		protected static final byte CHECKPOINT = 5;
+		protected static final int HEADER = 8;
+
+		private final FileChannel channel;
+		private final int syncRecords;
+		private final long syncNanos;
+		private final boolean fsync;
+		private final CRC32 crc = new CRC32();
+		private final Thread flusher;
+
+		// guarded by the log
+		private ByteBuffer buffer;   // the records that were appended and not written yet
+		private ByteBuffer spare;    // the buffer that the flusher writes, null while it writes it
+		private int recordStart;
+		private int pending;         // the number of records in buffer
+		private long appended;       // sequence number of the last appended record
+		private long durable;        // sequence number of the last record on the disk
+		private int waiters;         // callers of sync that wait for the disk
+		private boolean closed;
+		private IOException failure;
+
+		/**
+		 * opens the log at path for appending after its first validLength bytes, anything after them is cut.
+		 * syncRecords and syncMillis bound the size and the delay of a group commit,
+		 * fsync false leaves the written records to the page cache of the operating system.
+		 */
+		public WriteAheadLog(Path path, long validLength, int syncRecords, long syncMillis, boolean fsync) throws IOException {
+			if (syncRecords < 1 || syncMillis < 0) throw new IllegalArgumentException("syncRecords must be positive and syncMillis non negative");
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			this.channel.truncate(validLength);
+			this.channel.position(validLength);
+			this.syncRecords = syncRecords;
+			this.syncNanos = syncMillis * 1_000_000L;
+			this.fsync = fsync;
+			this.buffer = ByteBuffer.allocate(1 << 16);
+			this.spare = ByteBuffer.allocate(1 << 16);
+			this.flusher = new Thread(this::flushLoop, "avltree-wal-" + path.getFileName());
+			this.flusher.setDaemon(true);
+			this.flusher.start();
+		}
+
+		/** appending an insert of (k, i), returns its sequence number - complexity O(|i|) **/
+		public synchronized long appendInsert(int k, String i) {
+			byte[] info = encode(i);
+			begin(1 + 4 + 4 + (info == null ? 0 : info.length));
+			this.buffer.put(INSERT).putInt(k);
+			putInfo(info);
+			return end();
+		}
+
+		/** appending a delete of k, returns its sequence number - complexity O(1) **/
+		public synchronized long appendDelete(int k) {
+			begin(1 + 4);
+			this.buffer.put(DELETE).putInt(k);
+			return end();
+		}
+
+		/** appending a split by x that keeps the smaller keys, returns its sequence number - complexity O(1) **/
+		public synchronized long appendSplit(int x) {
+			begin(1 + 4);
+			this.buffer.put(SPLIT).putInt(x);
+			return end();
+		}
+
+		/** appending a join with (k, i) and the sorted items of another tree, returns its sequence number - complexity O(m) **/
+		public synchronized long appendJoin(int k, String i, int[] keys, String[] values) {
+			byte[] info = encode(i);
+			byte[][] infos = new byte[values.length][];
+			int length = 1 + 4 + 4 + (info == null ? 0 : info.length) + 4;
+			for (int j = 0; j < values.length; j++) {
+				infos[j] = encode(values[j]);
+				length += 4 + 4 + (infos[j] == null ? 0 : infos[j].length);
+			}
+			begin(length);
+			this.buffer.put(JOIN).putInt(k);
+			putInfo(info);
+			this.buffer.putInt(keys.length);
+			for (int j = 0; j < keys.length; j++) {
+				this.buffer.putInt(keys[j]);
+				putInfo(infos[j]);
+			}
+			return end();
+		}
+
+		/** appending the record that starts a log on top of snapshot number s, returns its sequence number - complexity O(1) **/
+		public synchronized long appendCheckpoint(int s) {
+			begin(1 + 4);
+			this.buffer.put(CHECKPOINT).putInt(s);
+			return end();
+		}
+
+		/**
+		 * public void sync()
+		 * <p>
+		 * waits until all the records appended before the call are written (and forced, with fsync) to the disk.
+		 * throws the IOException that stopped the log, if any.
+		 */
+		public void sync() throws IOException {
+			synchronized (this) {
+				long target = this.appended;
+				this.waiters++;
+				notifyAll();
+				try {
+					while (this.durable < target && this.failure == null) wait();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException("interrupted while waiting for the log");
+				}
+				finally {
+					this.waiters--;
+				}
+				if (this.failure != null) throw this.failure;
+			}
+		}
+
+		/**
+		 * public void close()
+		 * <p>
+		 * writes the remaining records, stops the background thread and closes the file.
+		 */
+		public void close() throws IOException {
+			synchronized (this) {
+				this.closed = true;
+				notifyAll();
+			}
+			try {
+				this.flusher.join();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted while closing the log");
+			}
+			finally {
+				this.channel.close();
+			}
+			synchronized (this) {
+				if (this.failure != null) throw this.failure;
+			}
+		}
+
+		/** reserving room for a record with a payload of the given length - complexity O(1) amortized **/
+		private void begin(int length) {
+			if (this.closed) throw new IllegalStateException("the log is closed");
+			if (this.failure != null) throw new UncheckedIOException(this.failure);
+			if (this.buffer.remaining() < HEADER + length) {
+				int capacity = Math.max(this.buffer.capacity() * 2, this.buffer.position() + HEADER + length);
+				ByteBuffer grown = ByteBuffer.allocate(capacity);
+				this.buffer.flip();
+				grown.put(this.buffer);
+				this.buffer = grown;
+			}
+			this.recordStart = this.buffer.position();
+			this.buffer.position(this.recordStart + HEADER);
+		}
+
+		/** writing the header of the record that begin started, waking the flusher if the batch is full O(length) **/
+		private long end() {
+			int length = this.buffer.position() - this.recordStart - HEADER;
+			this.crc.reset();
+			this.crc.update(this.buffer.array(), this.recordStart + HEADER, length);
+			this.buffer.putInt(this.recordStart, length);
+			this.buffer.putInt(this.recordStart + 4, (int) this.crc.getValue());
+			if (++this.pending == 1 || this.pending >= this.syncRecords) notifyAll();
+			return ++this.appended;
+		}
+
+		private void putInfo(byte[] info) {
+			if (info == null) {
+				this.buffer.putInt(-1);
+				return;
+			}
+			this.buffer.putInt(info.length);
+			this.buffer.put(info);
+		}
+
+		private static byte[] encode(String i) {
+			return i == null ? null : i.getBytes(StandardCharsets.UTF_8);
+		}
+
+		/** the loop of the background thread - one write and one force for every group of records **/
+		private void flushLoop() {
+			try {
+				while (true) {
+					ByteBuffer out;
+					long sequence;
+					synchronized (this) {
+						while (this.pending == 0 && !this.closed) wait();
+						if (this.pending == 0) return;
+						// gathering more records until the batch is full, it is old enough or someone waits
+						long deadline = System.nanoTime() + this.syncNanos;
+						while (this.pending < this.syncRecords && this.waiters == 0 && !this.closed) {
+							long left = deadline - System.nanoTime();
+							if (left <= 0) break;
+							wait(left / 1_000_000, (int) (left % 1_000_000));
+						}
+						out = this.buffer;
+						this.buffer = this.spare;
+						this.spare = null;
+						sequence = this.appended;
+						this.pending = 0;
+					}
+					out.flip();
+					while (out.hasRemaining()) this.channel.write(out);
+					if (this.fsync) this.channel.force(false);
+					out.clear();
+					synchronized (this) {
+						this.spare = out;
+						this.durable = sequence;
+						notifyAll();
+					}
+				}
+			}
+			catch (IOException e) {
+				synchronized (this) {
+					this.failure = e;
+					notifyAll();
+				}
+			}
+			catch (InterruptedException e) {
+				synchronized (this) {
+					this.failure = new InterruptedIOException("the log writer was interrupted");
+					notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * public static class DurableAVLTree
+	 * <p>
+	 * AVL tree whose changes are kept in a WriteAheadLog. opening the tree replays the log:
+	 * runs of inserts and runs of deletes are applied as batches with insertAll and deleteAll,
+	 * so a log of n inserts of ascending keys (a restart after a bulk load) is rebuilt in O(n),
+	 * and any log in O(n log n). the log is cut after the last complete record.
+	 * a change is appended to the log before the tree is changed, so a change the log refuses (a closed or
+	 * failed log) throws and leaves the tree as it was. a change is in the log's memory buffer when the
+	 * method returns; sync() waits for the disk.
+	 * checkpoint() saves the tree to a snapshot (see save) and replaces the log by one that starts with a
+	 * CHECKPOINT record naming the snapshot, so opening the tree loads the snapshot and replays only the
+	 * changes after it. the snapshots alternate between two files next to the log, and the new log is moved
+	 * over the old one only after its snapshot is complete, so a crash at any point leaves a log whose
+	 * snapshot is intact. a checkpoint is also taken after a change once the log holds more than
+	 * size() + 2^20 changes, which bounds the cost of opening the tree by O(n log n) in the number of items
+	 * rather than in the number of changes ever made, at O(1) amortized cost per change.
+	 * like AVLTree, the tree is for one thread at a time.
+	 */
+	public static class DurableAVLTree implements Closeable {
+		private static final int CHECKPOINT_SLACK = 1 << 20;
+
+		protected AVLTree tree;
+		protected WriteAheadLog log;
+		private final Path path;
+		private final int syncRecords;
+		private final long syncMillis;
+		private final boolean fsync;
+		private int snapshot = -1; // the snapshot the log starts from, -1 for the empty tree
+		private long logged;       // the number of changes in the log
+
+		/** opens (or creates) the tree of the log at path, with group commits of up to 1024 records or 2 ms **/
+		public DurableAVLTree(Path path) throws IOException {
+			this(path, 1024, 2, true);
+		}
+
+		/** opens (or creates) the tree of the log at path, see WriteAheadLog for the group commit parameters **/
+		public DurableAVLTree(Path path, int syncRecords, long syncMillis, boolean fsync) throws IOException {
+			this.path = path;
+			this.syncRecords = syncRecords;
+			this.syncMillis = syncMillis;
+			this.fsync = fsync;
+			this.tree = new AVLTree();
+			long validLength = recover(path);
+			this.log = new WriteAheadLog(path, validLength, syncRecords, syncMillis, fsync);
+		}
+
+		/**
+		 * public String search(int k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		public String search(int k) {
+			return this.tree.search(k);
+		}
+
+		/**
+		 * public int insert(int k, String i)
+		 * <p>
+		 * appends the insert of (k, i) to the log and inserts it to the tree, see AVLTree.insert
+		 * complexity O(log n)
+		 */
+		public int insert(int k, String i) {
+			AVLNode parent = this.tree.descend(k);
+			if (parent != null && parent.key == k) return -1;
+			this.log.appendInsert(k, i);
+			int result = parent == null ? this.tree.insertRoot(k, i) : this.tree.insertUnder(parent, k, i);
+			logged(1);
+			return result;
+		}
+
+		/**
+		 * public int delete(int k)
+		 * <p>
+		 * appends the delete of k to the log and deletes the item with key k from the tree, see AVLTree.delete
+		 * complexity O(log n)
+		 */
+		public int delete(int k) {
+			AVLNode node = this.tree.descend(k);
+			if (node == null || node.key != k) return -1;
+			this.log.appendDelete(k);
+			int result = this.tree.delete(k);
+			logged(1);
+			return result;
+		}
+
+		/**
+		 * public AVLTree split(int x)
+		 * <p>
+		 * keeps the items with keys smaller than x in this tree and returns a tree (not durable)
+		 * of the items with keys larger than x. the item with key x is removed.
+		 * complexity O(log n)
+		 */
+		public AVLTree split(int x) {
+			this.log.appendSplit(x);
+			AVLTree[] parts = this.tree.split(x);
+			this.tree = parts[0];
+			logged(1);
+			return parts[1];
+		}
+
+		/**
+		 * public int join(int k, String i, AVLTree t)
+		 * <p>
+		 * joins t and the item (k, i) with the tree, see AVLTree.join.
+		 * the items of t are written to the log, since t itself is not durable.
+		 * throws IllegalArgumentException if t has a monoid, like AVLTree.join.
+		 * complexity O(log n + |t|)
+		 */
+		public int join(int k, String i, AVLTree t) {
+			this.tree.checkMonoid(t);
+			int count = t.size();
+			this.log.appendJoin(k, i, t.keysToArray(), t.infoToArray());
+			int result = this.tree.join(this.tree.new AVLNode(k, i), t);
+			logged(count + 1);
+			return result;
+		}
+
+		/**
+		 * public String min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String min() {
+			return this.tree.min();
+		}
+
+		/**
+		 * public String max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String max() {
+			return this.tree.max();
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of items in the tree.
+		 * complexity O(1)
+		 */
+		public int size() {
+			return this.tree.size();
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(1)
+		 */
+		public boolean empty() {
+			return this.tree.empty();
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys in the tree
+		 * complexity O(n)
+		 */
+		public int[] keysToArray() {
+			return this.tree.keysToArray();
+		}
+
+		/**
+		 * public String[] infoToArray()
+		 * <p>
+		 * Returns all the info in the tree sorted by their keys
+		 * complexity O(n)
+		 */
+		public String[] infoToArray() {
+			return this.tree.infoToArray();
+		}
+
+		/**
+		 * public void sync()
+		 * <p>
+		 * waits until all the changes made so far are on the disk
+		 */
+		public void sync() throws IOException {
+			this.log.sync();
+		}
+
+		/**
+		 * public void checkpoint()
+		 * <p>
+		 * saves the tree to the snapshot file the log does not start from and replaces the log by an empty
+		 * log on top of that snapshot. the old log and its snapshot stay in place until the new log is moved
+		 * over the old one. if the checkpoint fails after the old log was closed, the tree refuses changes.
+		 * complexity O(n)
+		 */
+		public void checkpoint() throws IOException {
+			this.log.sync();
+			int next = this.snapshot == 0 ? 1 : 0;
+			this.tree.save(snapshotPath(this.path, next));
+			this.log.close();
+			Path written = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+			try (WriteAheadLog fresh = new WriteAheadLog(written, 0, 1, 0, true)) {
+				fresh.appendCheckpoint(next);
+			}
+			Files.move(written, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			this.log = new WriteAheadLog(this.path, Files.size(this.path), this.syncRecords, this.syncMillis, this.fsync);
+			this.snapshot = next;
+			this.logged = 0;
+		}
+
+		/**
+		 * public void close()
+		 * <p>
+		 * writes the remaining changes to the log and closes it
+		 */
+		public void close() throws IOException {
+			this.log.close();
+		}
+
+		/** counting changes that were made, and taking a checkpoint once the log is longer than the tree O(1) amortized **/
+		private void logged(int changes) {
+			this.logged += changes;
+			if (this.logged <= (long) this.tree.size() + CHECKPOINT_SLACK) return;
+			try {
+				checkpoint();
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/** the path of snapshot number s (0 or 1) of the log at path O(1) **/
+		private static Path snapshotPath(Path path, int s) {
+			return path.resolveSibling(path.getFileName() + ".snapshot" + s);
+		}
+
+		/**
+		 * replaying the log at path into the tree, from the snapshot its CHECKPOINT record names if it starts with one,
+		 * returns the length of its complete records.
+		 * the log is read through the 1 GB windows of MappedInput with long positions, so it may be longer than 2 GB.
+		 * complexity O(n log n)
+		 **/
+		private long recover(Path path) throws IOException {
+			if (!Files.exists(path)) return 0;
+			CRC32 crc = new CRC32();
+			Batch batch = new Batch();
+			long position = 0;
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				long size = channel.size();
+				MappedInput in = new MappedInput(channel, 0, size);
+				while (size - position >= WriteAheadLog.HEADER) {
+					int length = in.readInt();
+					int checksum = in.readInt();
+					if (length < 1 || length > size - position - WriteAheadLog.HEADER) break;
+					ByteBuffer payload = in.take(length);
+					crc.reset();
+					crc.update(payload.duplicate());
+					if ((int) crc.getValue() != checksum) break;
+					long start = position;
+					position += WriteAheadLog.HEADER + length;
+					byte op = payload.get();
+					int k = payload.getInt();
+					if (op != batch.op) batch.apply(this.tree);
+					batch.op = op;
+					this.logged++;
+					switch (op) {
+						case WriteAheadLog.CHECKPOINT:
+							if (start != 0 || (k != 0 && k != 1)) throw new IOException("misplaced checkpoint in the log at " + start);
+							this.tree = AVLTree.load(snapshotPath(path, k));
+							this.snapshot = k;
+							this.logged = 0;
+							break;
+						case WriteAheadLog.INSERT:
+							batch.add(k, readInfo(payload));
+							break;
+						case WriteAheadLog.DELETE:
+							batch.add(k, null);
+							break;
+						case WriteAheadLog.SPLIT:
+							this.tree = this.tree.split(k)[0];
+							break;
+						case WriteAheadLog.JOIN:
+							String info = readInfo(payload);
+							int count = payload.getInt();
+							int[] keys = new int[count];
+							String[] values = new String[count];
+							for (int j = 0; j < count; j++) {
+								keys[j] = payload.getInt();
+								values[j] = readInfo(payload);
+							}
+							this.tree.join(this.tree.new AVLNode(k, info), new AVLTree(keys, values));
+							break;
+						default:
+							throw new IOException("unknown operation " + op + " in the log at " + start);
+					}
+				}
+			}
+			batch.apply(this.tree);
+			return position;
+		}
+
+		private static String readInfo(ByteBuffer payload) {
+			int length = payload.getInt();
+			if (length < 0) return null;
+			byte[] bytes = new byte[length];
+			payload.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		/**
+		 * private static class Batch
+		 * <p>
+		 * a run of inserts or of deletes of the log, applied at once when the run ends
+		 */
+		private static final class Batch {
+			private byte op;
+			private int count;
+			private int[] keys = new int[1024];
+			private String[] values = new String[1024];
+
+			private void add(int k, String i) {
+				if (this.count == this.keys.length) {
+					this.keys = Arrays.copyOf(this.keys, this.count * 2);
+					this.values = Arrays.copyOf(this.values, this.count * 2);
+				}
+				this.keys[this.count] = k;
+				this.values[this.count++] = i;
+			}
+
+			private void apply(AVLTree tree) {
+				if (this.count == 0) return;
+				int[] keys = Arrays.copyOf(this.keys, this.count);
+				if (this.op == WriteAheadLog.INSERT) tree.insertAll(keys, Arrays.copyOf(this.values, this.count));
+				else tree.deleteAll(keys);
+				Arrays.fill(this.values, 0, this.count, null);
+				this.count = 0;
+			}
+		}
+	}
+
+	/**
+	 * public static class MappedAVLTree
+	 * <p>
+	 * read only tree that searches a memory mapped file directly, with no node objects on the heap.
+	 * the keys of a balanced tree are laid out in Eytzinger (breadth first) order - the children of
+	 * the node at index i (from 1) are at 2i and 2i + 1 - so a search reads one int per level from
+	 * a contiguous array and the top levels of every search share the same few pages.
+	 * file layout (little endian), after a 32 byte header [int magic "AVLE"][byte format][int n][long info length]:
+	 * int keys[n] and int order[n] in Eytzinger order - order is the in order rank of the node,
+	 * long info offsets[n + 1] by rank - the high bit marks a null info - and the UTF-8 blob of the info.
+	 * the mapping is shared with every process that opens the file through the page cache,
+	 * and only the pages that are touched are read.
+	 */
+	public static class MappedAVLTree {
+		private static final int MAGIC = 0x41564C45; // "AVLE"
+		private static final byte FORMAT = 1;
+		private static final int HEADER = 32;
+		private static final long NULL_INFO = Long.MIN_VALUE;
+
+		private final MappedBytes bytes;
+		private final int n;
+		private final long keysAt;
+		private final long orderAt;
+		private final long offsetsAt;
+		private final long infoAt;
+
+		private MappedAVLTree(MappedBytes bytes) throws IOException {
+			this.bytes = bytes;
+			if (bytes.length < HEADER || bytes.getInt(0) != MAGIC || bytes.getByte(4) != FORMAT) throw new IOException("not a mapped tree");
+			this.n = bytes.getInt(8);
+			long infoLength = bytes.getLong(16);
+			this.keysAt = HEADER;
+			this.orderAt = this.keysAt + 4L * this.n;
+			this.offsetsAt = this.orderAt + 4L * this.n; // 8 bytes aligned, the header and the int columns take 32 + 8n bytes
+			this.infoAt = this.offsetsAt + 8L * (this.n + 1);
+			if (this.n < 0 || infoLength < 0 || this.infoAt + infoLength != bytes.length) throw new IOException("corrupt mapped tree header");
+		}
+
+		/**
+		 * public static MappedAVLTree open(Path path)
+		 * <p>
+		 * maps a file written by write, nothing is read but the header.
+		 * complexity O(1)
+		 */
+		public static MappedAVLTree open(Path path) throws IOException {
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				// the mapping stays valid after the channel is closed
+				return new MappedAVLTree(new MappedBytes(channel));
+			}
+		}
+
+		/**
+		 * public static void write(AVLTree tree, Path path)
+		 * <p>
+		 * writes the items of tree in the layout of a mapped tree, the tree is not changed.
+		 * complexity O(n)
+		 */
+		public static void write(AVLTree tree, Path path) throws IOException {
+			int[] sorted = tree.keysToArray();
+			String[] values = tree.infoToArray();
+			int n = sorted.length;
+			int[] keys = new int[n];
+			int[] order = new int[n];
+			layout(sorted, keys, order, 0, 1);
+			Path written = path.resolveSibling(path.getFileName() + ".tmp");
+			try (FileChannel channel = FileChannel.open(written, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer out = ByteBuffer.allocate(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+				out.position(HEADER);
+				for (int k : keys) {
+					if (out.remaining() < 4) drain(channel, out);
+					out.putInt(k);
+				}
+				for (int r : order) {
+					if (out.remaining() < 4) drain(channel, out);
+					out.putInt(r);
+				}
+				drain(channel, out);
+				long offset = 0;
+				byte[][] infos = new byte[n][];
+				for (int r = 0; r < n; r++) {
+					if (out.remaining() < 8) drain(channel, out);
+					infos[r] = values[r] == null ? null : values[r].getBytes(StandardCharsets.UTF_8);
+					out.putLong(infos[r] == null ? offset | NULL_INFO : offset);
+					if (infos[r] != null) offset += infos[r].length;
+				}
+				if (out.remaining() < 8) drain(channel, out);
+				out.putLong(offset);
+				drain(channel, out);
+				for (byte[] info : infos) {
+					if (info == null) continue;
+					if (out.remaining() < info.length) drain(channel, out);
+					if (info.length > out.remaining()) {
+						ByteBuffer large = ByteBuffer.wrap(info);
+						while (large.hasRemaining()) channel.write(large);
+					}
+					else {
+						out.put(info);
+					}
+				}
+				drain(channel, out);
+				out.putInt(MAGIC).put(FORMAT).put(new byte[3]).putInt(n).putInt(0).putLong(offset).putLong(0);
+				out.flip();
+				channel.write(out, 0);
+				channel.force(true);
+			}
+			Files.move(written, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+
+		/**
+		 * public boolean empty()
+		 * <p>
+		 * returns true if and only if the tree is empty
+		 * complexity O(1)
+		 */
+		public boolean empty() {
+			return this.n == 0;
+		}
+
+		/**
+		 * public int size()
+		 * <p>
+		 * Returns the number of items in the tree.
+		 * complexity O(1)
+		 */
+		public int size() {
+			return this.n;
+		}
+
+		/**
+		 * public String search(int k)
+		 * <p>
+		 * returns the info of an item with key k if it exists in the tree
+		 * otherwise, returns null
+		 * complexity O(log n)
+		 */
+		public String search(int k) {
+			long i = 1;
+			while (i <= this.n) {
+				int key = key(i);
+				if (key == k) return info(order(i));
+				i = 2 * i + (k > key ? 1 : 0);
+			}
+			return null;
+		}
+
+		/**
+		 * public String min()
+		 * <p>
+		 * Returns the info of the item with the smallest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String min() {
+			if (this.n == 0) return null;
+			return info(0);
+		}
+
+		/**
+		 * public String max()
+		 * <p>
+		 * Returns the info of the item with the largest key in the tree,
+		 * or null if the tree is empty
+		 * complexity O(1)
+		 */
+		public String max() {
+			if (this.n == 0) return null;
+			return info(this.n - 1);
+		}
+
+		/**
+		 * public int select(int i)
+		 * <p>
+		 * Returns the i-th smallest key in the tree, counting from 0, by descending on the order column.
+		 * throws IndexOutOfBoundsException if i is not in [0, size()).
+		 * complexity O(log n)
+		 */
+		public int select(int i) {
+			if (i < 0 || i >= this.n) throw new IndexOutOfBoundsException("index " + i + ", size " + this.n);
+			long j = 1;
+			while (true) {
+				int r = order(j);
+				if (r == i) return key(j);
+				j = 2 * j + (i > r ? 1 : 0);
+			}
+		}
+
+		/**
+		 * public int rank(int k)
+		 * <p>
+		 * Returns the number of keys in the tree that are smaller than k.
+		 * complexity O(log n)
+		 */
+		public int rank(int k) {
+			long j = ceiling(k);
+			return j == 0 ? this.n : order(j);
+		}
+
+		/**
+		 * public int countInRange(int lo, int hi)
+		 * <p>
+		 * Returns the number of keys k in the tree with lo <= k < hi.
+		 * complexity O(log n)
+		 */
+		public int countInRange(int lo, int hi) {
+			if (hi <= lo) return 0;
+			return rank(hi) - rank(lo);
+		}
+
+		/**
+		 * public int range(int lo, int hi, ItemConsumer consumer)
+		 * <p>
+		 * passes the items with lo <= key < hi to the consumer in key order.
+		 * the in order successor of an index is found with bit operations on the index alone.
+		 * Returns the number of items passed.
+		 * complexity O(log n + the number of items passed)
+		 */
+		public int range(int lo, int hi, ItemConsumer consumer) {
+			int counter = 0;
+			for (long j = ceiling(lo); j != 0; j = successor(j)) {
+				int key = key(j);
+				if (key >= hi) break;
+				consumer.accept(key, info(order(j)));
+				counter++;
+			}
+			return counter;
+		}
+
+		/**
+		 * public int[] keysToArray()
+		 * <p>
+		 * Returns a sorted array which contains all keys in the tree,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public int[] keysToArray() {
+			int[] result = new int[this.n];
+			for (long j = 1; j <= this.n; j++) result[order(j)] = key(j);
+			return result;
+		}
+
+		/**
+		 * public String[] infoToArray()
+		 * <p>
+		 * Returns an array which contains all info in the tree,
+		 * sorted by their respective keys,
+		 * or an empty array if the tree is empty.
+		 * complexity O(n)
+		 */
+		public String[] infoToArray() {
+			String[] result = new String[this.n];
+			for (int r = 0; r < this.n; r++) result[r] = info(r);
+			return result;
+		}
+
+		/** the index of the smallest key >= k, or 0 if there is none - complexity O(log n) **/
+		private long ceiling(int k) {
+			long result = 0;
+			long j = 1;
+			while (j <= this.n) {
+				if (key(j) >= k) {
+					result = j;
+					j = 2 * j;
+				}
+				else {
+					j = 2 * j + 1;
+				}
+			}
+			return result;
+		}
+
+		/** the index of the in order successor of j, or 0 after the last one - complexity O(1) amortized **/
+		private long successor(long j) {
+			if (2 * j + 1 <= this.n) {
+				// the leftmost index in the right subtree
+				j = 2 * j + 1;
+				while (2 * j <= this.n) j = 2 * j;
+				return j;
+			}
+			// going up past all the ancestors that j is in the right subtree of
+			return j >>> (Long.numberOfTrailingZeros(~j) + 1);
+		}
+
+		private int key(long j) {
+			return this.bytes.getInt(this.keysAt + 4 * (j - 1));
+		}
+
+		private int order(long j) {
+			return this.bytes.getInt(this.orderAt + 4 * (j - 1));
+		}
+
+		/** decoding the info of the item with in order rank r O(|info|) **/
+		private String info(int r) {
+			long from = this.bytes.getLong(this.offsetsAt + 8L * r);
+			if (from < 0) return null;
+			long to = this.bytes.getLong(this.offsetsAt + 8L * (r + 1)) & ~NULL_INFO;
+			byte[] info = new byte[(int) (to - from)];
+			this.bytes.get(this.infoAt + from, info);
+			return new String(info, StandardCharsets.UTF_8);
+		}
+
+		/** filling the Eytzinger index j and its subtree from sorted[r...], returns the next rank O(n) **/
+		private static int layout(int[] sorted, int[] keys, int[] order, int r, long j) {
+			if (j > sorted.length) return r;
+			r = layout(sorted, keys, order, r, 2 * j);
+			keys[(int) (j - 1)] = sorted[r];
+			order[(int) (j - 1)] = r;
+			return layout(sorted, keys, order, r + 1, 2 * j + 1);
+		}
+	}
+
+	/**
+	 * private static class MappedBytes
+	 * <p>
+	 * a whole file mapped read only in windows of 1 GB, read by absolute positions.
+	 * ints and longs at aligned positions never cross a window.
+	 */
+	private static final class MappedBytes {
+		private static final int SHIFT = 30;
+		private static final long MASK = (1L << SHIFT) - 1;
+
+		private final MappedByteBuffer[] windows;
+		private final long length;
+
+		private MappedBytes(FileChannel channel) throws IOException {
+			this.length = channel.size();
+			this.windows = new MappedByteBuffer[(int) ((this.length + MASK) >>> SHIFT)];
+			for (int w = 0; w < this.windows.length; w++) {
+				long start = (long) w << SHIFT;
+				this.windows[w] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(MASK + 1, this.length - start));
+				this.windows[w].order(ByteOrder.LITTLE_ENDIAN);
+			}
+		}
+
+		private byte getByte(long position) {
+			return this.windows[(int) (position >>> SHIFT)].get((int) (position & MASK));
+		}
+
+		private int getInt(long position) {
+			return this.windows[(int) (position >>> SHIFT)].getInt((int) (position & MASK));
+		}
+
+		private long getLong(long position) {
+			return this.windows[(int) (position >>> SHIFT)].getLong((int) (position & MASK));
+		}
+
+		/** copying bytes from position, across windows if needed O(|dst|) **/
+		private void get(long position, byte[] dst) {
+			int done = 0;
+			while (done < dst.length) {
+				ByteBuffer window = this.windows[(int) (position >>> SHIFT)].duplicate();
+				window.position((int) (position & MASK));
+				int chunk = Math.min(dst.length - done, window.remaining());
+				window.get(dst, done, chunk);
+				done += chunk;
+				position += chunk;
+			}
+		}
+	}
+
+	/**
+	 * public interface MetricsMXBean
+	 * <p>
+	 * the management interface of the metrics of a tree, so they can be registered as a JMX MXBean
+	 * and read by any JMX client or a Micrometer gauge.
+	 */
+	public interface MetricsMXBean {
+		long getSingleRotations(); // rotations that were not part of a double rotation
+
+		long getDoubleRotations();
+
+		long getPromotions();
+
+		long getDemotions();
+
+		long getSearches();
+
+		double getMeanSearchPathLength(); // nodes visited by a search
+
+		long getMaxSearchPathLength();
+
+		long getSplits();
+
+		double getMeanSplitCost(); // the depth of the split key
+
+		long getJoins();
+
+		double getMeanJoinCost(); // the complexity returned by join
+
+		long getMaxJoinCost();
+
+		Map<String, Long> getLatencyNanos(); // "<operation>.<count|p50|p99|p999|max>"
+
+		void reset();
+	}
+
+	/**
+	 * public static class Metrics
+	 * <p>
+	 * counters and latency histograms of the operations on one tree, collected after enableMetrics.
+	 * rotations, promotions and demotions are counted by insert, delete and the re-balancing
+	 * of split, join and the batch operations. latencies are kept per operation (search, insert,
+	 * delete, split, join) in LatencyHistograms. like the tree, the metrics are written by one thread;
+	 * readers on other threads (JMX) see values that may lag slightly.
+	 */
+	public static class Metrics implements MetricsMXBean {
+		protected long rotations;
+		protected long doubleRotations;
+		protected long promotions;
+		protected long demotions;
+		protected long searches;
+		protected long searchPathTotal;
+		protected long searchPathMax;
+		protected long splits;
+		protected long splitCostTotal;
+		protected long joins;
+		protected long joinCostTotal;
+		protected long joinCostMax;
+		protected final LatencyHistogram searchLatency = new LatencyHistogram();
+		protected final LatencyHistogram insertLatency = new LatencyHistogram();
+		protected final LatencyHistogram deleteLatency = new LatencyHistogram();
+		protected final LatencyHistogram splitLatency = new LatencyHistogram();
+		protected final LatencyHistogram joinLatency = new LatencyHistogram();
+
+		/**
+		 * public ObjectName register(String name)
+		 * <p>
+		 * registers the metrics in the platform MBean server as AVLTree:type=Metrics,name=name
+		 * and returns the name they were registered with.
+		 */
+		public ObjectName register(String name) throws JMException {
+			ObjectName objectName = new ObjectName("AVLTree:type=Metrics,name=" + ObjectName.quote(name));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+			return objectName;
+		}
+
+		public long getSingleRotations() {
+			return this.rotations - 2 * this.doubleRotations;
+		}
+
+		public long getDoubleRotations() {
+			return this.doubleRotations;
+		}
+
+		public long getPromotions() {
+			return this.promotions;
+		}
+
+		public long getDemotions() {
+			return this.demotions;
+		}
+
+		public long getSearches() {
+			return this.searches;
+		}
+
+		public double getMeanSearchPathLength() {
+			return this.searches == 0 ? 0 : (double) this.searchPathTotal / this.searches;
+		}
+
+		public long getMaxSearchPathLength() {
+			return this.searchPathMax;
+		}
+
+		public long getSplits() {
+			return this.splits;
+		}
+
+		public double getMeanSplitCost() {
+			return this.splits == 0 ? 0 : (double) this.splitCostTotal / this.splits;
+		}
+
+		public long getJoins() {
+			return this.joins;
+		}
+
+		public double getMeanJoinCost() {
+			return this.joins == 0 ? 0 : (double) this.joinCostTotal / this.joins;
+		}
+
+		public long getMaxJoinCost() {
+			return this.joinCostMax;
+		}
+
+		public Map<String, Long> getLatencyNanos() {
+			Map<String, Long> result = new LinkedHashMap<>();
+			latencies(result, "search", this.searchLatency);
+			latencies(result, "insert", this.insertLatency);
+			latencies(result, "delete", this.deleteLatency);
+			latencies(result, "split", this.splitLatency);
+			latencies(result, "join", this.joinLatency);
+			return result;
+		}
+
+		/** the latency histogram of an operation - search, insert, delete, split or join **/
+		public LatencyHistogram getLatency(String operation) {
+			switch (operation) {
+				case "search":
+					return this.searchLatency;
+				case "insert":
+					return this.insertLatency;
+				case "delete":
+					return this.deleteLatency;
+				case "split":
+					return this.splitLatency;
+				case "join":
+					return this.joinLatency;
+				default:
+					throw new IllegalArgumentException("unknown operation " + operation);
+			}
+		}
+
+		public void reset() {
+			this.rotations = 0;
+			this.doubleRotations = 0;
+			this.promotions = 0;
+			this.demotions = 0;
+			this.searches = 0;
+			this.searchPathTotal = 0;
+			this.searchPathMax = 0;
+			this.splits = 0;
+			this.splitCostTotal = 0;
+			this.joins = 0;
+			this.joinCostTotal = 0;
+			this.joinCostMax = 0;
+			this.searchLatency.reset();
+			this.insertLatency.reset();
+			this.deleteLatency.reset();
+			this.splitLatency.reset();
+			this.joinLatency.reset();
+		}
+
+		protected void searched(int pathLength, long nanos) {
+			this.searches++;
+			this.searchPathTotal += pathLength;
+			this.searchPathMax = Math.max(this.searchPathMax, pathLength);
+			this.searchLatency.record(nanos);
+		}
+
+		protected void split(int cost, long nanos) {
+			this.splits++;
+			this.splitCostTotal += cost;
+			this.splitLatency.record(nanos);
+		}
+
+		protected void join(int cost, long nanos) {
+			this.joins++;
+			this.joinCostTotal += cost;
+			this.joinCostMax = Math.max(this.joinCostMax, cost);
+			this.joinLatency.record(nanos);
+		}
+
+		private static void latencies(Map<String, Long> result, String operation, LatencyHistogram histogram) {
+			result.put(operation + ".count", histogram.getCount());
+			result.put(operation + ".p50", histogram.getValueAtPercentile(50));
+			result.put(operation + ".p99", histogram.getValueAtPercentile(99));
+			result.put(operation + ".p999", histogram.getValueAtPercentile(99.9));
+			result.put(operation + ".max", histogram.getMax());
+		}
+	}
+
+	/**
+	 * public static class LatencyHistogram
+	 * <p>
+	 * histogram of non negative values (nanoseconds) with a bounded relative error, in the manner of HdrHistogram:
+	 * values below 8 have their own buckets, and every power of two above is split into 8 linear buckets,
+	 * so a percentile is reported within 12.5% of the recorded value. 496 counters, recording is O(1)
+	 * and never allocates.
+	 */
+	public static class LatencyHistogram {
+		private static final int SUB_BITS = 3;
+		private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+		private final long[] counts = new long[(64 - SUB_BITS + 1) * SUB_BUCKETS];
+		private long count;
+		private long total;
+		private long max;
+
+		/** recording one value O(1) **/
+		public void record(long value) {
+			if (value < 0) value = 0;
+			this.counts[bucket(value)]++;
+			this.count++;
+			this.total += value;
+			if (value > this.max) this.max = value;
+		}
+
+		public long getCount() {
+			return this.count;
+		}
+
+		public long getMax() {
+			return this.max;
+		}
+
+		public double getMean() {
+			return this.count == 0 ? 0 : (double) this.total / this.count;
+		}
+
+		/** the highest value of the bucket that holds the given percentile (0 - 100) of the values, 0 if there are none O(buckets) **/
+		public long getValueAtPercentile(double percentile) {
+			if (this.count == 0) return 0;
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+			long seen = 0;
+			for (int b = 0; b < this.counts.length; b++) {
+				seen += this.counts[b];
+				if (seen >= rank) return Math.min(highest(b), this.max);
+			}
+			return this.max;
+		}
+
+		public void reset() {
+			Arrays.fill(this.counts, 0);
+			this.count = 0;
+			this.total = 0;
+			this.max = 0;
+		}
+
+		private static int bucket(long value) {
+			if (value < SUB_BUCKETS) return (int) value;
+			int exponent = 63 - Long.numberOfLeadingZeros(value);
+			int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+			return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+		}
+
+		private static long highest(int bucket) {
+			if (bucket < SUB_BUCKETS) return bucket;
+			int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+			int sub = bucket % SUB_BUCKETS;
+			long lowest = (long) (SUB_BUCKETS + sub) << (exponent - SUB_BITS);
+			return lowest + (1L << (exponent - SUB_BITS)) - 1;
+		}
+	}
+
 }
 
 
@@ -0,0 +1,337 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ *
+ * Benchmarks of every public operation of AVLTree.
+ *
+ * for every tree size and key distribution the tree is built once and every operation
+ * is measured over a few iterations after a warm up iteration.
+ * reports throughput (ops/s), average latency (ns/op) and allocation rate (bytes/op),
+ * the allocation is read from the per thread allocation counter of the JVM.
+ * <p>
+ * usage: java -Xmx4g AVLTreeBenchmark [sizes=1000,...] [dists=sequential,random,zipfian]
+ *        [iterations=5] [ops=100000] [shared=false]
+ * <p>
+ * key distributions:
+ * sequential - the keys 0..n-1, inserted and accessed in ascending order.
+ * random - n distinct random keys, inserted and accessed in uniform random order.
+ * zipfian - the keys of random, accessed with a zipfian (theta 0.99) popularity over the keys.
+ *
+ */
+
+public class AVLTreeBenchmark {
+
+	private static final String INFO = "info";
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private final int iterations;
+	private final int ops;
+	private final boolean shared;
+	private long sink; // consumed results, so the JIT can't drop the measured calls
+	private volatile AVLTree target; // read on every call of the O(1) operations, so the JIT can't hoist them
+
+	public AVLTreeBenchmark(int iterations, int ops, boolean shared) {
+		this.iterations = iterations;
+		this.ops = ops;
+		this.shared = shared;
+	}
+
+	public static void main(String[] args) {
+		int[] sizes = {1_000, 10_000, 100_000, 1_000_000, 10_000_000};
+		String[] dists = {"sequential", "random", "zipfian"};
+		int iterations = 5;
+		int ops = 100_000;
+		boolean shared = false;
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			switch (kv[0]) {
+				case "sizes":
+					String[] parts = kv[1].split(",");
+					sizes = new int[parts.length];
+					for (int i = 0; i < parts.length; i++) sizes[i] = Integer.parseInt(parts[i]);
+					break;
+				case "dists":
+					dists = kv[1].split(",");
+					break;
+				case "iterations":
+					iterations = Integer.parseInt(kv[1]);
+					break;
+				case "ops":
+					ops = Integer.parseInt(kv[1]);
+					break;
+				case "shared":
+					shared = Boolean.parseBoolean(kv[1]);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown argument " + arg);
+			}
+		}
+		AVLTreeBenchmark benchmark = new AVLTreeBenchmark(iterations, ops, shared);
+		System.out.println("# AVLTree benchmark, java " + System.getProperty("java.version")
+				+ ", shared external " + shared + ", " + iterations + " iterations of " + ops + " ops");
+		System.out.println("# " + System.getProperty("os.name") + " " + System.getProperty("os.arch")
+				+ ", " + Runtime.getRuntime().availableProcessors() + " cpus, max heap " + (Runtime.getRuntime().maxMemory() >> 20) + " MB");
+		System.out.printf("%-12s %-10s %10s %14s %12s %12s%n", "benchmark", "dist", "size", "ops/s", "ns/op", "B/op");
+		// warming up the JIT on small trees before the real measurements
+		for (String dist : dists) {
+			benchmark.run(10_000, dist, true);
+		}
+		for (int n : sizes) {
+			for (String dist : dists) {
+				benchmark.run(n, dist, false);
+			}
+		}
+	}
+
+	/** measuring all the operations on one tree of n keys **/
+	private void run(int n, String dist, boolean warmup) {
+		int[] keys = keys(n, dist);
+		int[] access = access(keys, dist, this.ops);
+		int[] absent = absent(keys, dist, this.ops);
+
+		AVLTree tree = new AVLTree(this.shared);
+		this.target = tree;
+		long start = System.nanoTime();
+		long allocated = allocated();
+		for (int k : keys) tree.insert(k, INFO);
+		report("build", dist, n, n, System.nanoTime() - start, allocated() - allocated, warmup);
+
+		measure("search", dist, n, warmup, () -> {
+			long s = 0;
+			for (int k : access) s += tree.search(k).length();
+			return s;
+		}, access.length);
+		measure("insert", dist, n, warmup, () -> {
+			long s = 0;
+			for (int k : absent) s += tree.insert(k, INFO);
+			// removing the keys again untimed, so every iteration sees the same tree
+			pause();
+			for (int k : absent) tree.delete(k);
+			resume();
+			return s;
+		}, absent.length);
+		measure("delete", dist, n, warmup, () -> {
+			pause();
+			for (int k : absent) tree.insert(k, INFO);
+			resume();
+			long s = 0;
+			for (int k : absent) s += tree.delete(k);
+			return s;
+		}, absent.length);
+		measure("min", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < access.length; i++) s += this.target.min().length();
+			return s;
+		}, access.length);
+		measure("max", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < access.length; i++) s += this.target.max().length();
+			return s;
+		}, access.length);
+		measure("size", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < access.length; i++) s += this.target.size();
+			return s;
+		}, access.length);
+		measure("empty", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < access.length; i++) s += this.target.empty() ? 1 : 0;
+			return s;
+		}, access.length);
+		measure("getRoot", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < access.length; i++) s += this.target.getRoot().getKey();
+			return s;
+		}, access.length);
+
+		// the linear operations run a fixed number of times per iteration, only a few milliseconds in all,
+		// so the heap is collected before each of them to keep a young collection out of the measurement
+		int linear = Math.max(1, Math.min(100, 10_000_000 / n));
+		System.gc();
+		measure("keysToArray", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < linear; i++) s += tree.keysToArray().length;
+			return s;
+		}, linear);
+		System.gc();
+		measure("infoToArray", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < linear; i++) s += tree.infoToArray().length;
+			return s;
+		}, linear);
+
+		// split and join alternate, the untimed one puts back the tree the other took apart
+		int pairs = Math.min(access.length, 10_000);
+		AVLTree[] current = {tree};
+		measure("split", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < pairs; i++) {
+				AVLTree[] p = current[0].split(access[i]);
+				s += p[0].size();
+				pause();
+				p[0].join(p[0].new AVLNode(access[i], INFO), p[1]);
+				current[0] = p[0];
+				resume();
+			}
+			return s;
+		}, pairs);
+		measure("join", dist, n, warmup, () -> {
+			long s = 0;
+			for (int i = 0; i < pairs; i++) {
+				pause();
+				AVLTree[] p = current[0].split(access[i]);
+				AVLTree.IAVLNode x = p[0].new AVLNode(access[i], INFO);
+				resume();
+				s += p[0].join(x, p[1]);
+				current[0] = p[0];
+			}
+			return s;
+		}, pairs);
+	}
+
+	/** the measured code, returning a value that is consumed **/
+	private interface Body {
+		long run();
+	}
+
+	// time and allocation spent in untimed sections (pause/resume) of the current iteration
+	private long pausedAt;
+	private long pausedAllocatedAt;
+	private long pausedTime;
+	private long pausedAllocated;
+
+	private void pause() {
+		this.pausedAt = System.nanoTime();
+		this.pausedAllocatedAt = allocated();
+	}
+
+	private void resume() {
+		this.pausedTime += System.nanoTime() - this.pausedAt;
+		this.pausedAllocated += allocated() - this.pausedAllocatedAt;
+	}
+
+	/** one warm up iteration and then the measured iterations of body, which runs opsPerRun operations **/
+	private void measure(String name, String dist, int n, boolean warmup, Body body, int opsPerRun) {
+		this.sink += body.run();
+		long time = 0;
+		long bytes = 0;
+		for (int i = 0; i < this.iterations; i++) {
+			this.pausedTime = 0;
+			this.pausedAllocated = 0;
+			long allocated = allocated();
+			long start = System.nanoTime();
+			this.sink += body.run();
+			time += System.nanoTime() - start - this.pausedTime;
+			bytes += allocated() - allocated - this.pausedAllocated;
+		}
+		report(name, dist, n, (long) opsPerRun * this.iterations, time, bytes, warmup);
+	}
+
+	private void report(String name, String dist, int n, long count, long nanos, long bytes, boolean warmup) {
+		if (warmup) return;
+		double nsPerOp = (double) nanos / count;
+		System.out.printf("%-12s %-10s %10d %14.0f %12.1f %12.1f%n",
+				name, dist, n, 1e9 / nsPerOp, nsPerOp, (double) bytes / count);
+	}
+
+	private static long allocated() {
+		return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+
+	/** the keys of the tree in insertion order **/
+	private static int[] keys(int n, String dist) {
+		int[] keys = new int[n];
+		if (dist.equals("sequential")) {
+			for (int i = 0; i < n; i++) keys[i] = i;
+			return keys;
+		}
+		// distinct random keys - a random odd multiplier is a bijection of the ints
+		Random random = new Random(n);
+		int multiplier = random.nextInt() | 1;
+		int offset = random.nextInt();
+		for (int i = 0; i < n; i++) keys[i] = i * multiplier + offset;
+		return keys;
+	}
+
+	/** count keys of the tree in access order **/
+	private static int[] access(int[] keys, String dist, int count) {
+		int[] access = new int[count];
+		Random random = new Random(count);
+		switch (dist) {
+			case "sequential":
+				for (int i = 0; i < count; i++) access[i] = keys[i % keys.length];
+				break;
+			case "random":
+				for (int i = 0; i < count; i++) access[i] = keys[random.nextInt(keys.length)];
+				break;
+			case "zipfian":
+				Zipfian zipfian = new Zipfian(keys.length, 0.99, random);
+				for (int i = 0; i < count; i++) access[i] = keys[zipfian.next()];
+				break;
+			default:
+				throw new IllegalArgumentException("unknown distribution " + dist);
+		}
+		return access;
+	}
+
+	/** count distinct keys that are not in the tree, appended after the largest key for sequential **/
+	private static int[] absent(int[] keys, String dist, int count) {
+		int[] absent = new int[count];
+		if (dist.equals("sequential")) {
+			for (int i = 0; i < count; i++) absent[i] = keys.length + i;
+			return absent;
+		}
+		int[] sorted = keys.clone();
+		Arrays.sort(sorted);
+		Set<Integer> taken = new HashSet<>();
+		Random random = new Random(keys.length);
+		for (int i = 0; i < count; ) {
+			int k = random.nextInt();
+			if (Arrays.binarySearch(sorted, k) < 0 && taken.add(k)) absent[i++] = k;
+		}
+		return absent;
+	}
+
+	/**
+	 * zipfian ranks in [0, n) with parameter theta, following Gray et al. "Quickly generating
+	 * billion-record synthetic databases". the ranks are scattered over the keys, so the hot keys
+	 * are spread over the whole tree.
+	 */
+	private static final class Zipfian {
+		private final int n;
+		private final double theta;
+		private final double alpha;
+		private final double zetan;
+		private final double eta;
+		private final Random random;
+
+		Zipfian(int n, double theta, Random random) {
+			this.n = n;
+			this.theta = theta;
+			this.random = random;
+			double zeta2 = 1 + Math.pow(0.5, theta);
+			double sum = 0;
+			for (int i = 1; i <= n; i++) sum += 1 / Math.pow(i, theta);
+			this.zetan = sum;
+			this.alpha = 1 / (1 - theta);
+			this.eta = (1 - Math.pow(2.0 / n, 1 - theta)) / (1 - zeta2 / this.zetan);
+		}
+
+		int next() {
+			double u = this.random.nextDouble();
+			double uz = u * this.zetan;
+			int rank;
+			if (uz < 1) rank = 0;
+			else if (uz < 1 + Math.pow(0.5, this.theta)) rank = 1;
+			else rank = (int) (this.n * Math.pow(this.eta * u - this.eta + 1, this.alpha));
+			rank = Math.min(rank, this.n - 1);
+			// scattering the ranks over the keys
+			return (int) ((rank * 0x9E3779B97F4A7C15L >>> 1) % this.n);
+		}
+	}
+}
@@ -0,0 +1,230 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *
+ * Churn check of the node pool of AVLTree.
+ *
+ * every round builds a tree with insert, reshapes it with one of the split and join based operations
+ * (insertAll, union, intersection, difference, deleteAll, deleteRange, evictBelow, split and join),
+ * turns on a small node pool and runs a random churn of inserts and deletes against a TreeMap.
+ * after every step the tree is checked against the map: the keys and infos in order, the ranks,
+ * the sizes, the parents, min and max, and that every virtual node is the child of one node only,
+ * since a virtual node shared by two nodes is handed out by the pool while it is still in the tree.
+ * exits with an exception at the first broken tree.
+ * <p>
+ * usage: java AVLTreeChurnCheck [rounds=300] [churn=2000] [pool=16] [seed=1]
+ *
+ */
+
+public class AVLTreeChurnCheck {
+
+	private static final int KEYS = 1000;
+
+	private final Random random;
+	private final int churn;
+	private final int pool;
+	private String operation; // the name of the last reshape operation
+
+	public AVLTreeChurnCheck(long seed, int churn, int pool) {
+		this.random = new Random(seed);
+		this.churn = churn;
+		this.pool = pool;
+	}
+
+	public static void main(String[] args) {
+		int rounds = 300;
+		int churn = 2000;
+		int pool = 16;
+		long seed = 1;
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			switch (kv[0]) {
+				case "rounds":
+					rounds = Integer.parseInt(kv[1]);
+					break;
+				case "churn":
+					churn = Integer.parseInt(kv[1]);
+					break;
+				case "pool":
+					pool = Integer.parseInt(kv[1]);
+					break;
+				case "seed":
+					seed = Long.parseLong(kv[1]);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown argument " + arg);
+			}
+		}
+		AVLTreeChurnCheck check = new AVLTreeChurnCheck(seed, churn, pool);
+		for (int round = 0; round < rounds; round++) {
+			check.round(round, false);
+			check.round(round, true);
+		}
+		System.out.println("churn check passed: " + rounds + " rounds, shared and non-shared");
+	}
+
+	/** one round: build, reshape by the operation of the round, then churn with the pool on **/
+	private void round(int round, boolean shared) {
+		AVLTree tree = new AVLTree(shared);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int i = 0; i < 200; i++) {
+			int k = this.random.nextInt(KEYS);
+			tree.insert(k, "a" + k);
+			expected.putIfAbsent(k, "a" + k);
+		}
+		tree = reshape(round % 9, tree, expected, shared);
+		String operation = this.operation;
+		verify(tree, expected, shared, operation);
+		tree.enableNodePool(this.pool);
+		for (int i = 0; i < this.churn; i++) {
+			int k = this.random.nextInt(KEYS);
+			if (this.random.nextBoolean()) {
+				tree.insert(k, "c" + k);
+				expected.putIfAbsent(k, "c" + k);
+			}
+			else {
+				tree.delete(k);
+				expected.remove(k);
+			}
+			if (i % 64 == 0) verify(tree, expected, shared, operation + " churn " + i);
+		}
+		verify(tree, expected, shared, operation + " churn");
+	}
+
+	/** applying operation number op to the tree and the map, returns the resulting tree **/
+	private AVLTree reshape(int op, AVLTree tree, TreeMap<Integer, String> expected, boolean shared) {
+		switch (op) {
+			case 0: {
+				int[] keys = new int[30];
+				String[] values = new String[30];
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = this.random.nextInt(KEYS);
+					values[i] = "b" + keys[i];
+				}
+				tree.insertAll(keys, values);
+				for (int i = 0; i < keys.length; i++) expected.putIfAbsent(keys[i], values[i]);
+				this.operation = "insertAll";
+				return tree;
+			}
+			case 1:
+			case 2:
+			case 3: {
+				AVLTree other = new AVLTree(shared);
+				TreeMap<Integer, String> items = new TreeMap<>();
+				for (int i = 0; i < 60; i++) {
+					int k = this.random.nextInt(KEYS);
+					other.insert(k, "o" + k);
+					items.putIfAbsent(k, "o" + k);
+				}
+				if (op == 1) {
+					tree.union(other);
+					for (Map.Entry<Integer, String> item : items.entrySet()) expected.putIfAbsent(item.getKey(), item.getValue());
+					this.operation = "union";
+					return tree;
+				}
+				if (op == 2) {
+					tree.intersection(other);
+					expected.keySet().retainAll(items.keySet());
+					this.operation = "intersection";
+					return tree;
+				}
+				tree.difference(other);
+				expected.keySet().removeAll(items.keySet());
+				this.operation = "difference";
+				return tree;
+			}
+			case 4: {
+				int[] keys = new int[40];
+				for (int i = 0; i < keys.length; i++) keys[i] = this.random.nextInt(KEYS);
+				tree.deleteAll(keys);
+				for (int k : keys) expected.remove(k);
+				this.operation = "deleteAll";
+				return tree;
+			}
+			case 5: {
+				int lo = this.random.nextInt(KEYS);
+				tree.deleteRange(lo, lo + 100);
+				expected.subMap(lo, true, lo + 100, false).clear();
+				this.operation = "deleteRange";
+				return tree;
+			}
+			case 6: {
+				int k = this.random.nextInt(KEYS / 3);
+				AVLTree evicted = tree.evictBelow(k);
+				TreeMap<Integer, String> below = new TreeMap<>(expected.headMap(k, false));
+				expected.headMap(k, false).clear();
+				verify(evicted, below, shared, "evictBelow evicted");
+				this.operation = "evictBelow";
+				return tree;
+			}
+			default: {
+				int k = this.random.nextInt(KEYS);
+				String info = expected.get(k);
+				AVLTree[] parts = tree.split(k);
+				verify(parts[0], new TreeMap<>(expected.headMap(k, false)), shared, "split lower");
+				verify(parts[1], new TreeMap<>(expected.tailMap(k, false)), shared, "split upper");
+				if (info == null) info = "s" + k;
+				parts[0].join(parts[0].new AVLNode(k, info), parts[1]);
+				expected.put(k, info);
+				this.operation = "split and join";
+				return parts[0];
+			}
+		}
+	}
+
+	/** checking the tree against the map, throws IllegalStateException with the step at the first difference **/
+	static void verify(AVLTree tree, TreeMap<Integer, String> expected, boolean shared, String step) {
+		Map<AVLTree.IAVLNode, AVLTree.IAVLNode> owners = new IdentityHashMap<>();
+		AVLTree.IAVLNode root = tree.getRoot();
+		int[] keys = new int[expected.size()];
+		int count = 0;
+		Deque<AVLTree.IAVLNode> stack = new ArrayDeque<>();
+		AVLTree.IAVLNode curr = root;
+		if (root.isRealNode() && root.getParent() != null) fail(step, "the root has a parent");
+		// in order walk, the ranks and sizes are checked when a node is visited
+		while (curr.isRealNode() || !stack.isEmpty()) {
+			while (curr.isRealNode()) {
+				stack.push(curr);
+				curr = curr.getLeft();
+			}
+			AVLTree.IAVLNode node = stack.pop();
+			if (count == keys.length) fail(step, "more nodes than the " + keys.length + " expected");
+			keys[count++] = node.getKey();
+			if (!Objects.equals(node.getValue(), expected.get(node.getKey()))) fail(step, "info of " + node.getKey());
+			for (AVLTree.IAVLNode child : new AVLTree.IAVLNode[] {node.getLeft(), node.getRight()}) {
+				if (child.isRealNode()) {
+					if (child.getParent() != node) fail(step, "parent of " + child.getKey());
+				}
+				else {
+					if (child.getHeight() != -1 || child.getSize() != 0) fail(step, "virtual child of " + node.getKey());
+					if (!shared && owners.put(child, node) != null) {
+						fail(step, "a virtual child of " + node.getKey() + " is also a child of " + owners.get(child).getKey());
+					}
+				}
+			}
+			int left = node.getLeft().getHeight();
+			int right = node.getRight().getHeight();
+			if (node.getHeight() != Math.max(left, right) + 1 || Math.abs(left - right) > 1) fail(step, "rank of " + node.getKey());
+			if (node.getSize() != node.getLeft().getSize() + node.getRight().getSize() + 1) fail(step, "size of " + node.getKey());
+			curr = node.getRight();
+		}
+		if (count != keys.length) fail(step, count + " nodes, " + keys.length + " expected");
+		int index = 0;
+		for (int k : expected.keySet()) {
+			if (keys[index++] != k) fail(step, "key " + k + " at index " + (index - 1));
+		}
+		if (tree.size() != expected.size()) fail(step, "size " + tree.size());
+		if (!expected.isEmpty() && (!Objects.equals(expected.firstEntry().getValue(), tree.min())
+				|| !Objects.equals(expected.lastEntry().getValue(), tree.max()))) fail(step, "min or max");
+	}
+
+	static void fail(String step, String message) {
+		throw new IllegalStateException(step + ": " + message);
+	}
+}
@@ -0,0 +1,419 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ *
+ * Differential check of the bulk and derived operations of AVLTree against a TreeMap.
+ *
+ * every round builds random trees, in shared and non-shared mode, and checks against a TreeMap of the same items:
+ * union, intersection and difference, insertAll and deleteAll, deleteRange, split and join, which run on the
+ * raw subtree split, rangeAggregate and aggregate of a SUM tree, PersistentAVLTree with its snapshots,
+ * save and load of a snapshot file and MappedAVLTree.
+ * the trees are checked with AVLTreeChurnCheck.verify: the keys and infos in order, the ranks, the sizes,
+ * the parents, min and max and the virtual nodes; the read only trees through their public methods.
+ * the keys include the extremes of int and the infos include null and non ASCII text.
+ * exits with an exception at the first difference.
+ * <p>
+ * usage: java AVLTreeDifferentialCheck [rounds=200] [keys=2000] [seed=1]
+ *
+ */
+
+public class AVLTreeDifferentialCheck {
+
+	private final Random random;
+	private final int keys;
+	private final Path file;
+
+	public AVLTreeDifferentialCheck(long seed, int keys, Path file) {
+		this.random = new Random(seed);
+		this.keys = keys;
+		this.file = file;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int rounds = 200;
+		int keys = 2000;
+		long seed = 1;
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			switch (kv[0]) {
+				case "rounds":
+					rounds = Integer.parseInt(kv[1]);
+					break;
+				case "keys":
+					keys = Integer.parseInt(kv[1]);
+					break;
+				case "seed":
+					seed = Long.parseLong(kv[1]);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown argument " + arg);
+			}
+		}
+		Path file = Files.createTempFile("avltree-check", ".bin");
+		try {
+			AVLTreeDifferentialCheck check = new AVLTreeDifferentialCheck(seed, keys, file);
+			for (int round = 0; round < rounds; round++) {
+				for (boolean shared : new boolean[] {false, true}) {
+					check.setOperations(shared);
+					check.batches(shared);
+					check.deleteRange(shared);
+					check.splitAndJoin(shared);
+					check.rangeAggregate(shared);
+					check.saveAndLoad(shared);
+				}
+				check.persistent();
+				check.mapped();
+			}
+		}
+		finally {
+			Files.deleteIfExists(file);
+		}
+		System.out.println("differential check passed: " + rounds + " rounds");
+	}
+
+	/** union, intersection and difference of two random trees, and of a tree with itself **/
+	private void setOperations(boolean shared) {
+		for (char operation : new char[] {'U', 'I', 'D'}) {
+			TreeMap<Integer, String> a = randomItems(this.random.nextInt(this.keys), "a");
+			TreeMap<Integer, String> b = randomItems(this.random.nextInt(this.keys), "b");
+			AVLTree tree = build(a, shared);
+			AVLTree other = build(b, shared);
+			String step;
+			if (operation == 'U') {
+				tree.union(other);
+				for (Map.Entry<Integer, String> item : b.entrySet()) insert(a, item.getKey(), item.getValue());
+				step = "union";
+			}
+			else if (operation == 'I') {
+				tree.intersection(other);
+				a.keySet().retainAll(b.keySet());
+				step = "intersection";
+			}
+			else {
+				tree.difference(other);
+				a.keySet().removeAll(b.keySet());
+				step = "difference";
+			}
+			AVLTreeChurnCheck.verify(tree, a, shared, step);
+			AVLTreeChurnCheck.verify(other, new TreeMap<>(), shared, step + " argument");
+		}
+		TreeMap<Integer, String> items = randomItems(this.random.nextInt(this.keys), "s");
+		AVLTree tree = build(items, shared);
+		tree.union(tree);
+		AVLTreeChurnCheck.verify(tree, items, shared, "union with itself");
+		tree.difference(tree);
+		AVLTreeChurnCheck.verify(tree, new TreeMap<>(), shared, "difference with itself");
+	}
+
+	/** insertAll and deleteAll of batches with repeated keys, keys that are in the tree and keys that are not **/
+	private void batches(boolean shared) {
+		TreeMap<Integer, String> expected = randomItems(this.random.nextInt(this.keys), "t");
+		AVLTree tree = build(expected, shared);
+		for (int batch = 0; batch < 4; batch++) {
+			int n = this.random.nextInt(this.keys / 2 + 1);
+			int[] keys = new int[n];
+			String[] values = new String[n];
+			for (int j = 0; j < n; j++) {
+				keys[j] = randomKey();
+				values[j] = randomInfo("i" + batch);
+			}
+			int[] sortedKeys = keys.clone();
+			Arrays.sort(sortedKeys);
+			tree.insertAll(batch % 2 == 0 ? keys : sortedKeys, batch % 2 == 0 ? values : sortedValues(keys, values, sortedKeys));
+			// the first of the repeated keys of a batch is inserted, and no key that is already in the tree
+			for (int j = 0; j < n; j++) insert(expected, keys[j], values[j]);
+			AVLTreeChurnCheck.verify(tree, expected, shared, "insertAll " + batch);
+			int[] deleted = new int[this.random.nextInt(this.keys / 2 + 1)];
+			for (int j = 0; j < deleted.length; j++) {
+				deleted[j] = this.random.nextBoolean() && !expected.isEmpty() ? anyKey(expected) : randomKey();
+			}
+			for (int k : deleted) expected.remove(k);
+			tree.deleteAll(deleted);
+			AVLTreeChurnCheck.verify(tree, expected, shared, "deleteAll " + batch);
+		}
+	}
+
+	/** deleteRange of empty, inner, outer and whole ranges **/
+	private void deleteRange(boolean shared) {
+		TreeMap<Integer, String> expected = randomItems(this.random.nextInt(this.keys), "r");
+		AVLTree tree = build(expected, shared);
+		for (int j = 0; j < 8; j++) {
+			// an empty range first, then the whole tree, then random ranges of a new tree
+			int lo = j == 1 ? Integer.MIN_VALUE : randomKey();
+			int hi = j == 0 ? lo : j == 1 ? Integer.MAX_VALUE : randomKey();
+			int count = lo < hi ? expected.subMap(lo, true, hi, false).size() : 0;
+			if (lo < hi) expected.subMap(lo, true, hi, false).clear();
+			int result = tree.deleteRange(lo, hi);
+			String step = "deleteRange [" + lo + ", " + hi + ")";
+			if (result != count) fail(step, "returned " + result + ", expected " + count);
+			AVLTreeChurnCheck.verify(tree, expected, shared, step);
+			if (j == 1) {
+				expected = randomItems(this.random.nextInt(this.keys), "r");
+				tree = build(expected, shared);
+			}
+		}
+	}
+
+	/** split at keys in the tree, between them and beyond the ends, then join the parts back with the split key **/
+	private void splitAndJoin(boolean shared) {
+		TreeMap<Integer, String> expected = randomItems(this.random.nextInt(this.keys), "p");
+		AVLTree tree = build(expected, shared);
+		for (int j = 0; j < 8; j++) {
+			int x = j % 4 == 0 || expected.isEmpty() ? randomKey() : anyKey(expected);
+			String info = expected.get(x);
+			AVLTree[] parts = tree.split(x);
+			TreeMap<Integer, String> lower = new TreeMap<>(expected.headMap(x, false));
+			TreeMap<Integer, String> upper = new TreeMap<>(expected.tailMap(x, false));
+			AVLTreeChurnCheck.verify(parts[0], lower, shared, "split lower at " + x);
+			AVLTreeChurnCheck.verify(parts[1], upper, shared, "split upper at " + x);
+			if (info == null) info = "j" + x;
+			// joining in both directions, the lower part with the upper and the upper part with the lower
+			if (j % 2 == 0) {
+				parts[0].join(parts[0].new AVLNode(x, info), parts[1]);
+				tree = parts[0];
+			}
+			else {
+				parts[1].join(parts[1].new AVLNode(x, info), parts[0]);
+				tree = parts[1];
+			}
+			expected.put(x, info);
+			AVLTreeChurnCheck.verify(tree, expected, shared, "join at " + x);
+		}
+	}
+
+	/** rangeAggregate and aggregate of a SUM tree through inserts, deletes, a split, a join and a union **/
+	private void rangeAggregate(boolean shared) {
+		AVLTree tree = new AVLTree(shared, AVLTree.Monoid.SUM);
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		for (int j = 0; j < this.keys; j++) {
+			int k = randomKey();
+			if (this.random.nextInt(4) == 0) {
+				tree.delete(k);
+				expected.remove(k);
+			}
+			else {
+				String info = this.random.nextInt(10) == 0 ? null : Long.toString(this.random.nextInt() * 1000L);
+				tree.insert(k, info);
+				insert(expected, k, info);
+			}
+		}
+		checkAggregates(tree, expected, shared, "inserts and deletes");
+		int x = expected.isEmpty() ? 0 : anyKey(expected);
+		String info = Long.toString(this.random.nextInt(1000));
+		AVLTree[] parts = tree.split(x);
+		checkAggregates(parts[0], new TreeMap<>(expected.headMap(x, false)), shared, "split lower");
+		checkAggregates(parts[1], new TreeMap<>(expected.tailMap(x, false)), shared, "split upper");
+		parts[0].join(parts[0].new AVLNode(x, info), parts[1]);
+		expected.put(x, info);
+		checkAggregates(parts[0], expected, shared, "join");
+		AVLTree other = new AVLTree(shared, AVLTree.Monoid.SUM);
+		for (int j = 0; j < this.keys / 4; j++) {
+			int k = randomKey();
+			String value = Integer.toString(this.random.nextInt(100));
+			other.insert(k, value);
+			insert(expected, k, value);
+		}
+		parts[0].union(other);
+		checkAggregates(parts[0], expected, shared, "union");
+	}
+
+	/** the aggregate of the whole tree and of random ranges against the sums of the map **/
+	private void checkAggregates(AVLTree tree, TreeMap<Integer, String> expected, boolean shared, String step) {
+		AVLTreeChurnCheck.verify(tree, expected, shared, "aggregate " + step);
+		if (tree.aggregate() != sum(expected, Integer.MIN_VALUE, Integer.MAX_VALUE, true)) fail(step, "aggregate " + tree.aggregate());
+		for (int j = 0; j < 50; j++) {
+			int lo = j == 0 ? Integer.MIN_VALUE : j % 5 == 0 && !expected.isEmpty() ? anyKey(expected) : randomKey();
+			int hi = j == 0 ? Integer.MAX_VALUE : j % 7 == 0 && !expected.isEmpty() ? anyKey(expected) : randomKey();
+			long result = tree.rangeAggregate(lo, hi);
+			long sum = sum(expected, lo, hi, false);
+			if (result != sum) fail(step, "rangeAggregate [" + lo + ", " + hi + ") is " + result + ", expected " + sum);
+		}
+	}
+
+	/** PersistentAVLTree against the map, with snapshots that must keep the items they were taken with **/
+	private void persistent() {
+		AVLTree.PersistentAVLTree tree = new AVLTree.PersistentAVLTree();
+		TreeMap<Integer, String> expected = new TreeMap<>();
+		List<AVLTree.PersistentAVLTree> snapshots = new ArrayList<>();
+		List<TreeMap<Integer, String>> states = new ArrayList<>();
+		for (int j = 0; j < this.keys; j++) {
+			int k = this.random.nextBoolean() || expected.isEmpty() ? randomKey() : anyKey(expected);
+			int result;
+			if (this.random.nextInt(3) == 0) {
+				result = tree.delete(k);
+				if ((result == -1) == expected.containsKey(k)) fail("persistent delete " + k, "returned " + result);
+				expected.remove(k);
+			}
+			else {
+				String info = randomInfo("q");
+				result = tree.insert(k, info);
+				if ((result == -1) != expected.containsKey(k)) fail("persistent insert " + k, "returned " + result);
+				insert(expected, k, info);
+			}
+			if (j % (this.keys / 8 + 1) == 0) {
+				snapshots.add(tree.snapshot());
+				states.add(new TreeMap<>(expected));
+			}
+		}
+		checkPersistent(tree, expected, "persistent");
+		for (int s = 0; s < snapshots.size(); s++) checkPersistent(snapshots.get(s), states.get(s), "persistent snapshot " + s);
+		AVLTree built = build(expected, false);
+		checkPersistent(new AVLTree.PersistentAVLTree(built), expected, "persistent from a tree");
+	}
+
+	private void checkPersistent(AVLTree.PersistentAVLTree tree, TreeMap<Integer, String> expected, String step) {
+		checkArrays(tree.keysToArray(), tree.infoToArray(), expected, step);
+		if (tree.size() != expected.size() || tree.empty() != expected.isEmpty()) fail(step, "size " + tree.size());
+		if (!expected.isEmpty() && (!Objects.equals(tree.min(), expected.firstEntry().getValue())
+				|| !Objects.equals(tree.max(), expected.lastEntry().getValue()))) fail(step, "min or max");
+		int[] keys = tree.keysToArray();
+		for (int j = 0; j < 100; j++) {
+			int k = this.random.nextBoolean() && keys.length > 0 ? keys[this.random.nextInt(keys.length)] : randomKey();
+			if (!Objects.equals(tree.search(k), expected.get(k))) fail(step, "search " + k);
+			if (tree.rank(k) != expected.headMap(k, false).size()) fail(step, "rank " + k);
+			if (keys.length > 0) {
+				int i = this.random.nextInt(keys.length);
+				if (tree.select(i) != keys[i]) fail(step, "select " + i);
+			}
+		}
+	}
+
+	/** save and load of a tree, a tree with null and non ASCII infos and an empty tree, in both modes **/
+	private void saveAndLoad(boolean shared) throws IOException {
+		TreeMap<Integer, String> expected = randomItems(this.random.nextInt(this.keys), "l");
+		for (int j = 0; j < 2; j++) {
+			AVLTree tree = build(expected, shared);
+			tree.save(this.file);
+			AVLTreeChurnCheck.verify(AVLTree.load(this.file, shared), expected, shared, "load of " + expected.size());
+			AVLTreeChurnCheck.verify(AVLTree.load(this.file, !shared), expected, !shared, "load in the other mode");
+			expected = new TreeMap<>();
+		}
+	}
+
+	/** MappedAVLTree of a random tree against the map, through all its reads **/
+	private void mapped() throws IOException {
+		TreeMap<Integer, String> expected = randomItems(this.random.nextInt(this.keys), "m");
+		AVLTree.MappedAVLTree.write(build(expected, false), this.file);
+		AVLTree.MappedAVLTree tree = AVLTree.MappedAVLTree.open(this.file);
+		String step = "mapped";
+		checkArrays(tree.keysToArray(), tree.infoToArray(), expected, step);
+		if (tree.size() != expected.size() || tree.empty() != expected.isEmpty()) fail(step, "size " + tree.size());
+		if (!expected.isEmpty() && (!Objects.equals(tree.min(), expected.firstEntry().getValue())
+				|| !Objects.equals(tree.max(), expected.lastEntry().getValue()))) fail(step, "min or max");
+		int[] keys = tree.keysToArray();
+		for (int j = 0; j < 200; j++) {
+			int k = this.random.nextBoolean() && keys.length > 0 ? keys[this.random.nextInt(keys.length)] : randomKey();
+			if (!Objects.equals(tree.search(k), expected.get(k))) fail(step, "search " + k);
+			if (tree.rank(k) != expected.headMap(k, false).size()) fail(step, "rank " + k);
+			if (keys.length > 0) {
+				int i = this.random.nextInt(keys.length);
+				if (tree.select(i) != keys[i]) fail(step, "select " + i);
+			}
+			int lo = randomKey();
+			int hi = randomKey();
+			int count = lo < hi ? expected.subMap(lo, true, hi, false).size() : 0;
+			if (tree.countInRange(lo, hi) != count) fail(step, "countInRange [" + lo + ", " + hi + ")");
+			List<Integer> passed = new ArrayList<>();
+			int result = tree.range(lo, hi, (key, info) -> {
+				if (!Objects.equals(info, expected.get(key))) fail("mapped", "range info of " + key);
+				passed.add(key);
+			});
+			if (result != count || !passed.equals(lo < hi ? new ArrayList<>(expected.subMap(lo, true, hi, false).keySet()) : List.of())) {
+				fail(step, "range [" + lo + ", " + hi + ")");
+			}
+		}
+	}
+
+	/** the insert of the trees on the map: an item whose key is there, even with a null info, is not inserted **/
+	private static void insert(TreeMap<Integer, String> items, int k, String i) {
+		if (!items.containsKey(k)) items.put(k, i);
+	}
+
+	/** a TreeMap of up to n random items, the infos start with the prefix **/
+	private TreeMap<Integer, String> randomItems(int n, String prefix) {
+		TreeMap<Integer, String> items = new TreeMap<>();
+		for (int j = 0; j < n; j++) insert(items, randomKey(), randomInfo(prefix));
+		return items;
+	}
+
+	/** a key of [-keys, keys], or one of the extremes of int once in a while **/
+	private int randomKey() {
+		int choice = this.random.nextInt(64);
+		if (choice == 0) return Integer.MIN_VALUE;
+		if (choice == 1) return Integer.MAX_VALUE;
+		return this.random.nextInt(2 * this.keys + 1) - this.keys;
+	}
+
+	/** an info with the prefix, null or a non ASCII info once in a while **/
+	private String randomInfo(String prefix) {
+		int choice = this.random.nextInt(16);
+		if (choice == 0) return null;
+		if (choice == 1) return prefix + "é中" + this.random.nextInt(100);
+		return prefix + this.random.nextInt(this.keys);
+	}
+
+	/** a key of the map, picked by a random rank **/
+	private int anyKey(TreeMap<Integer, String> items) {
+		int index = this.random.nextInt(items.size());
+		for (int k : items.keySet()) {
+			if (index-- == 0) return k;
+		}
+		throw new IllegalStateException("no key");
+	}
+
+	/** the values of a batch in the order of its sorted keys, the first value of a repeated key kept first **/
+	private static String[] sortedValues(int[] keys, String[] values, int[] sortedKeys) {
+		TreeMap<Integer, List<String>> byKey = new TreeMap<>();
+		for (int j = 0; j < keys.length; j++) byKey.computeIfAbsent(keys[j], key -> new ArrayList<>()).add(values[j]);
+		String[] result = new String[sortedKeys.length];
+		int j = 0;
+		for (List<String> infos : byKey.values()) {
+			for (String info : infos) result[j++] = info;
+		}
+		return result;
+	}
+
+	/** a tree of the items of the map, inserted in a random order **/
+	private AVLTree build(TreeMap<Integer, String> items, boolean shared) {
+		List<Map.Entry<Integer, String>> entries = new ArrayList<>(items.entrySet());
+		Collections.shuffle(entries, this.random);
+		AVLTree tree = new AVLTree(shared);
+		for (Map.Entry<Integer, String> entry : entries) tree.insert(entry.getKey(), entry.getValue());
+		return tree;
+	}
+
+	/** the sum of the infos of the keys in [lo, hi), or of all of them, as Monoid.SUM lifts them **/
+	private static long sum(TreeMap<Integer, String> items, int lo, int hi, boolean all) {
+		long sum = 0;
+		if (!all && hi <= lo) return sum;
+		for (String info : (all ? items : items.subMap(lo, true, hi, false)).values()) {
+			if (info != null) sum += Long.parseLong(info);
+		}
+		return sum;
+	}
+
+	/** checking sorted arrays of keys and infos against the map **/
+	private static void checkArrays(int[] keys, String[] infos, TreeMap<Integer, String> expected, String step) {
+		if (keys.length != expected.size() || infos.length != expected.size()) fail(step, keys.length + " keys, " + expected.size() + " expected");
+		int index = 0;
+		for (Map.Entry<Integer, String> item : expected.entrySet()) {
+			if (keys[index] != item.getKey()) fail(step, "key " + item.getKey() + " at index " + index);
+			if (!Objects.equals(infos[index], item.getValue())) fail(step, "info of " + item.getKey());
+			index++;
+		}
+	}
+
+	private static void fail(String step, String message) {
+		AVLTreeChurnCheck.fail(step, message);
+	}
+}
@@ -0,0 +1,178 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ *
+ * Linearizability stress test of AVLTree.ConcurrentAVLTree.
+ *
+ * every key has one writer thread, which alternates inserts and deletes of it: its operation j (from 1)
+ * inserts the key with the info "key:j" when j is odd and deletes it when j is even, so after c operations
+ * the key is present with the info "key:c" when c is odd and absent when c is even.
+ * the writer publishes the number of the operation it started before calling the tree, and the number of
+ * the operation it completed after the call returns. a reader reads the completed number lo, searches
+ * the key and reads the started number hi: the linearization point of the search lies between them, so the
+ * result must be the state after some c in [lo, hi]. a result outside of that window is a lost, stale
+ * or torn read.
+ * the writers also check the results of their own inserts and deletes, the readers check that keysToArray
+ * is sorted and that size is in range, and at the end the tree is compared to the states of all the keys.
+ * exits with an exception at the end if there were errors.
+ * <p>
+ * usage: java ConcurrentAVLTreeStress [writers=2] [readers=4] [keys=20000] [seconds=5]
+ *
+ */
+
+public class ConcurrentAVLTreeStress {
+
+	private final AVLTree.ConcurrentAVLTree tree;
+	private final int writers;
+	private final int keys;
+	private final AtomicIntegerArray started; // the number of the last operation started on every key
+	private final AtomicIntegerArray completed; // the number of the last operation completed on every key
+	private final AtomicBoolean stop;
+	private final AtomicLong reads;
+	private final ConcurrentLinkedQueue<String> errors;
+
+	public ConcurrentAVLTreeStress(int writers, int keys) {
+		this.tree = new AVLTree.ConcurrentAVLTree();
+		this.writers = writers;
+		this.keys = keys;
+		this.started = new AtomicIntegerArray(keys);
+		this.completed = new AtomicIntegerArray(keys);
+		this.stop = new AtomicBoolean();
+		this.reads = new AtomicLong();
+		this.errors = new ConcurrentLinkedQueue<>();
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		int writers = 2;
+		int readers = 4;
+		int keys = 20_000;
+		int seconds = 5;
+		for (String arg : args) {
+			String[] kv = arg.split("=", 2);
+			switch (kv[0]) {
+				case "writers":
+					writers = Integer.parseInt(kv[1]);
+					break;
+				case "readers":
+					readers = Integer.parseInt(kv[1]);
+					break;
+				case "keys":
+					keys = Integer.parseInt(kv[1]);
+					break;
+				case "seconds":
+					seconds = Integer.parseInt(kv[1]);
+					break;
+				default:
+					throw new IllegalArgumentException("unknown argument " + arg);
+			}
+		}
+		new ConcurrentAVLTreeStress(writers, keys).run(readers, seconds);
+	}
+
+	/** running the writers and the readers for the given time, then checking the final tree **/
+	private void run(int readers, int seconds) throws InterruptedException {
+		List<Thread> threads = new ArrayList<>();
+		List<long[]> counters = new ArrayList<>();
+		for (int w = 0; w < this.writers; w++) {
+			int writer = w;
+			long[] counter = new long[1];
+			counters.add(counter);
+			threads.add(new Thread(() -> counter[0] = write(writer)));
+		}
+		for (int r = 0; r < readers; r++) {
+			int reader = r;
+			threads.add(new Thread(() -> read(reader)));
+		}
+		for (Thread thread : threads) thread.start();
+		Thread.sleep(seconds * 1000L);
+		this.stop.set(true);
+		for (Thread thread : threads) thread.join();
+		long writes = 0;
+		for (long[] counter : counters) writes += counter[0];
+		checkFinal();
+		System.out.println("writes " + writes + " reads " + this.reads.get() + " errors " + this.errors.size());
+		if (!this.errors.isEmpty()) {
+			List<String> first = new ArrayList<>();
+			for (String error : this.errors) {
+				if (first.size() == 10) break;
+				first.add(error);
+			}
+			throw new IllegalStateException("not linearizable: " + first);
+		}
+	}
+
+	/** the loop of writer w, over the keys k with k % writers == w, returns the number of writes **/
+	private long write(int w) {
+		Random random = new Random(w);
+		int owned = (this.keys - w + this.writers - 1) / this.writers;
+		long count = 0;
+		while (!this.stop.get()) {
+			int k = w + random.nextInt(owned) * this.writers;
+			int j = this.completed.get(k) + 1;
+			this.started.set(k, j);
+			int result = j % 2 == 1 ? this.tree.insert(k, info(k, j)) : this.tree.delete(k);
+			if (result == -1) this.errors.add((j % 2 == 1 ? "insert " : "delete ") + k + " failed at operation " + j);
+			this.completed.set(k, j);
+			count++;
+		}
+		return count;
+	}
+
+	/** the loop of reader r, checking every search against the window of the operations around it **/
+	private void read(int r) {
+		Random random = new Random(1000 + r);
+		long count = 0;
+		while (!this.stop.get()) {
+			int k = random.nextInt(this.keys);
+			int lo = this.completed.get(k);
+			String info = this.tree.search(k);
+			int hi = this.started.get(k);
+			if (!possible(k, info, lo, hi)) this.errors.add("search " + k + " returned " + info + " between operations " + lo + " and " + hi);
+			if (++count % 4096 == 0) {
+				int size = this.tree.size();
+				if (size < 0 || size > this.keys) this.errors.add("size " + size);
+				int[] sorted = this.tree.keysToArray();
+				for (int i = 1; i < sorted.length; i++) {
+					if (sorted[i] <= sorted[i - 1]) {
+						this.errors.add("keysToArray out of order at " + i);
+						break;
+					}
+				}
+			}
+		}
+		this.reads.addAndGet(count);
+	}
+
+	/** whether info is the state of key k after some number of operations in [lo, hi] **/
+	private static boolean possible(int k, String info, int lo, int hi) {
+		if (info == null) return lo % 2 == 0 || hi > lo;
+		int colon = info.indexOf(':');
+		if (colon < 0 || !info.substring(0, colon).equals(Integer.toString(k))) return false;
+		int j = Integer.parseInt(info.substring(colon + 1));
+		return j % 2 == 1 && lo <= j && j <= hi;
+	}
+
+	/** comparing the tree, with all the threads stopped, to the states of the keys **/
+	private void checkFinal() {
+		int expected = 0;
+		for (int k = 0; k < this.keys; k++) {
+			int c = this.completed.get(k);
+			String info = this.tree.search(k);
+			String state = c % 2 == 1 ? info(k, c) : null;
+			if (state == null ? info != null : !state.equals(info)) this.errors.add("final " + k + " is " + info + ", expected " + state);
+			if (state != null) expected++;
+		}
+		if (this.tree.size() != expected) this.errors.add("final size " + this.tree.size() + ", expected " + expected);
+		if (this.tree.keysToArray().length != expected) this.errors.add("final keysToArray of " + this.tree.keysToArray().length);
+	}
+
+	private static String info(int k, int j) {
+		return k + ":" + j;
+	}
+}